@@ -0,0 +1,123 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import javassist.ByteArrayClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewMethod;
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.annotation.Annotation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Costs of generating a facade with {@link EjbMocker} for EJBs with 1, 10 and
+ * 100 methods. The EJBs are generated in memory, so the numbers do not depend
+ * on the application classes.
+ * 
+ * @author ckl
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EjbMockerBenchmark {
+	private final static String PACKAGE = "de.schakko.warp.benchmark.";
+
+	@Param({ "1", "10", "100" })
+	int methods;
+
+	private String sourceClazz;
+
+	private BoundedClassPool pool;
+
+	private EjbMockerCache cache;
+
+	@Setup(Level.Trial)
+	public void createEjb() throws Exception {
+		sourceClazz = PACKAGE + "Ejb" + methods;
+		pool = new BoundedClassPool();
+		pool.insertClassPath(new ByteArrayClassPath(sourceClazz, createEjbBytecode(sourceClazz, methods)));
+
+		File directory = new File("target/jmh-ejb-mocker-cache");
+		cache = new EjbMockerCache(directory);
+		// warm cache for the cache hit benchmark
+		createMocker(cache).createBytecode();
+	}
+
+	/**
+	 * Javassist pipeline without writing the bytecode
+	 */
+	@Benchmark
+	public CtClass createCtClass() throws Exception {
+		CtClass r = createMocker(null).createCtClass();
+		// the facade has replaced the source class inside the pool
+		r.detach();
+
+		return r;
+	}
+
+	/**
+	 * Generation of the bytecode like EjbMockerBuilder.stream() without cache
+	 */
+	@Benchmark
+	public byte[] stream() throws Exception {
+		return createMocker(null).createBytecode();
+	}
+
+	/**
+	 * EjbMockerBuilder.stream() with a cache hit
+	 */
+	@Benchmark
+	public byte[] streamCached() throws Exception {
+		return createMocker(cache).createBytecode();
+	}
+
+	private EjbMocker createMocker(EjbMockerCache cache) {
+		EjbMocker r = new EjbMocker(sourceClazz, pool);
+		r.setSuppressExceptions(true);
+		r.setCache(cache);
+
+		return r;
+	}
+
+	/**
+	 * Creates a javax.ejb.Stateless class with the given number of methods
+	 */
+	static byte[] createEjbBytecode(String name, int methods) throws Exception {
+		ClassPool cp = new ClassPool(true);
+		CtClass clazz = cp.makeClass(name);
+
+		ClassFile cf = clazz.getClassFile();
+		AnnotationsAttribute attribute = new AnnotationsAttribute(cf.getConstPool(), AnnotationsAttribute.visibleTag);
+		attribute.addAnnotation(new Annotation("javax.ejb.Stateless", cf.getConstPool()));
+		cf.addAttribute(attribute);
+
+		for (int i = 0; i < methods; i++) {
+			clazz.addMethod(CtNewMethod.make("public java.util.List findUsers" + i + "(int offset, String filter) "
+					+ "{ return new java.util.ArrayList(); }", clazz));
+		}
+
+		byte[] r = clazz.toBytecode();
+		clazz.detach();
+
+		return r;
+	}
+}
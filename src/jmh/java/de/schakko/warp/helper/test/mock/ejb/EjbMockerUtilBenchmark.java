@@ -0,0 +1,56 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link EjbMockerUtil#getEmbeddedMock} with the former reflective
+ * lookup of {@value EjbMockerUtil#MOCK_ACCESSOR}() on a real generated facade
+ * 
+ * @author ckl
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EjbMockerUtilBenchmark {
+	private final static String SOURCE_CLAZZ = "de.schakko.warp.business.boundary.UserService";
+
+	private Object facade;
+
+	@Setup
+	public void createFacade() throws Exception {
+		byte[] bytecode = EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).suppressExceptions(true).useCache(false)
+				.stream();
+		facade = FacadeClassLoader.newFacade(SOURCE_CLAZZ, bytecode);
+	}
+
+	@Benchmark
+	public Object getEmbeddedMock() throws Exception {
+		return EjbMockerUtil.getEmbeddedMock(facade, Object.class);
+	}
+
+	/**
+	 * The reflective lookup used before the accessor cache
+	 */
+	@Benchmark
+	public Object reflectiveLookup() throws Exception {
+		Method getMock = facade.getClass().getMethod(EjbMockerUtil.MOCK_ACCESSOR);
+
+		return getMock.invoke(facade);
+	}
+}
@@ -0,0 +1,127 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.schakko.warp.business.boundary.UserService;
+import de.schakko.warp.business.control.UserCache;
+import de.schakko.warp.business.control.UserRepository;
+import de.schakko.warp.business.entity.User;
+
+/**
+ * Overhead of a call through a generated facade compared with a call of the
+ * real UserService. The facades are loaded by a {@link FacadeClassLoader}, so
+ * they can not be called through the UserService type of the benchmark. All
+ * calls, including the direct one, are made through a
+ * {@link MethodHandle#invokeExact} of the same type to keep the numbers
+ * comparable.
+ * 
+ * @author ckl
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FacadeDispatchBenchmark {
+	private final static String SOURCE_CLAZZ = "de.schakko.warp.business.boundary.UserService";
+
+	private final static MethodType INVOKE_TYPE = MethodType.methodType(Object.class, Object.class);
+
+	private Object userService;
+
+	private MethodHandle directFindUsers;
+
+	private Object mockitoFacade;
+
+	private MethodHandle mockitoFindUsers;
+
+	private Object stubTableFacade;
+
+	private MethodHandle stubTableFindUsers;
+
+	@Setup
+	public void createFacades() throws Exception {
+		List<User> users = new ArrayList<User>();
+		users.add(new User(1, "A mocked user instance"));
+
+		userService = new UserService();
+		inject(userService, "userRepository", new UserRepository());
+		inject(userService, "userCache", new UserCache());
+		directFindUsers = findUsers(UserService.class);
+
+		mockitoFacade = loadFacade(EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).suppressExceptions(true)
+				.eagerMockInitialization(true).useCache(false).stream());
+		Object embeddedMock = EjbMockerUtil.getEmbeddedMock(mockitoFacade, Object.class);
+		Method mockedFindUsers = embeddedMock.getClass().getMethod("findUsers");
+		Mockito.when(mockedFindUsers.invoke(embeddedMock)).thenReturn(users);
+		mockitoFindUsers = findUsers(mockitoFacade.getClass());
+
+		stubTableFacade = loadFacade(EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).suppressExceptions(true)
+				.useStubTable(true).useCache(false).stream());
+		EjbMockerUtil.getStubTable(stubTableFacade).when("findUsers").thenReturn(users);
+		stubTableFindUsers = findUsers(stubTableFacade.getClass());
+	}
+
+	/**
+	 * The real EJB which asks the UserRepository through its UserCache
+	 */
+	@Benchmark
+	public Object direct() throws Throwable {
+		return (Object) directFindUsers.invokeExact(userService);
+	}
+
+	/**
+	 * Facade which delegates to its embedded Mockito instance
+	 */
+	@Benchmark
+	public Object mockitoFacade() throws Throwable {
+		return (Object) mockitoFindUsers.invokeExact(mockitoFacade);
+	}
+
+	/**
+	 * Facade which delegates to its {@link StubTable}
+	 */
+	@Benchmark
+	public Object stubTableFacade() throws Throwable {
+		return (Object) stubTableFindUsers.invokeExact(stubTableFacade);
+	}
+
+	/**
+	 * Replaces the container's injection of the real EJB
+	 */
+	private void inject(Object target, String name, Object value) throws Exception {
+		Field field = target.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(target, value);
+	}
+
+	private Object loadFacade(byte[] bytecode) throws Exception {
+		return FacadeClassLoader.newFacade(SOURCE_CLAZZ, bytecode);
+	}
+
+	private MethodHandle findUsers(Class<?> type) throws Exception {
+		return MethodHandles.publicLookup().findVirtual(type, "findUsers", MethodType.methodType(List.class))
+				.asType(INVOKE_TYPE);
+	}
+}
@@ -1,10 +1,17 @@
 package de.schakko.warp.business.boundary;
 
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
+import javax.ejb.AsyncResult;
+import javax.ejb.Asynchronous;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 
+import de.schakko.warp.business.control.UserCache;
 import de.schakko.warp.business.control.UserRepository;
 import de.schakko.warp.business.entity.User;
 
@@ -15,14 +22,108 @@ import de.schakko.warp.business.entity.User;
  */
 @Stateless
 public class UserService {
+	/**
+	 * Prefix of all keys inside the {@link UserCache}
+	 */
+	public final static String CACHE_PREFIX = "users.";
+
 	// this field does not exist during integration testing
 	@Inject
 	UserRepository userRepository;
 
+	// shared by all sessions; does not exist during integration testing
+	@Inject
+	UserCache userCache;
+
 	public List<User> findUsers() {
 		// this method call does not exist during integration testing. It will
 		// forward to a Mockito-mocked instance of this EJB which be fully
 		// controlled.
-		return userRepository.findUsers();
+		return userCache.get(CACHE_PREFIX + "all", new Callable<List<User>>() {
+			@Override
+			public List<User> call() {
+				return Collections.unmodifiableList(userRepository.findUsers());
+			}
+		});
+	}
+
+	/**
+	 * Asynchronous variant of {@link #findUsers()}; pages with several
+	 * backend calls can run them in parallel
+	 * 
+	 * @return
+	 */
+	@Asynchronous
+	public Future<List<User>> findUsersAsync() {
+		return new AsyncResult<List<User>>(findUsers());
+	}
+
+	/**
+	 * Asynchronous variant of {@link #findFirstUser()}
+	 * 
+	 * @return
+	 */
+	@Asynchronous
+	public Future<User> findFirstUserAsync() {
+		return new AsyncResult<User>(findFirstUser());
+	}
+
+	/**
+	 * @see UserRepository#findUserPage(int, int)
+	 */
+	public List<User> findUserPage(final int offset, final int limit) {
+		return userCache.get(CACHE_PREFIX + "page." + offset + "." + limit, new Callable<List<User>>() {
+			@Override
+			public List<User> call() {
+				return Collections.unmodifiableList(userRepository.findUserPage(offset, limit));
+			}
+		});
+	}
+
+	/**
+	 * @see UserRepository#findUsersAfter(long, int)
+	 */
+	public List<User> findUsersAfter(long lastId, int limit) {
+		return userRepository.findUsersAfter(lastId, limit);
+	}
+
+	/**
+	 * @see UserRepository#iterateUsers()
+	 */
+	public Iterator<User> iterateUsers() {
+		return userRepository.iterateUsers();
+	}
+
+	/**
+	 * @return the user with the lowest id or null
+	 */
+	public User findFirstUser() {
+		return userCache.get(CACHE_PREFIX + "first", new Callable<User>() {
+			@Override
+			public User call() {
+				return userRepository.findFirstUser();
+			}
+		});
+	}
+
+	/**
+	 * @see UserRepository#findById(long)
+	 */
+	public User findById(long id) {
+		return userRepository.findById(id);
+	}
+
+	/**
+	 * @see UserRepository#findByIds(long...)
+	 */
+	public List<User> findByIds(long... ids) {
+		return userRepository.findByIds(ids);
+	}
+
+	/**
+	 * Removes all cached users; call it after the user table has been changed
+	 */
+	public void invalidateUsers() {
+		userCache.invalidatePrefix(CACHE_PREFIX);
 	}
 }
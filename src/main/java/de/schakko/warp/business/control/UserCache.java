@@ -0,0 +1,205 @@
+package de.schakko.warp.business.control;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * Application wide cache in front of the {@link UserRepository}. Entries
+ * expire after their time to live and the least recently used entry is
+ * evicted if the cache is full.
+ * 
+ * If several threads miss the same key at the same time, only the first one
+ * loads the value; the others wait for its result. A burst of new sessions
+ * therefore results in a single database query.
+ * 
+ * @author ckl
+ * 
+ */
+@ApplicationScoped
+public class UserCache {
+	public final static int DEFAULT_MAX_SIZE = 1000;
+
+	public final static long DEFAULT_TIME_TO_LIVE = TimeUnit.MINUTES.toMillis(1);
+
+	/**
+	 * Cached value; the future is done once the value has been loaded
+	 */
+	private static class Entry {
+		final FutureTask<Object> value;
+
+		final long expiresAt;
+
+		Entry(FutureTask<Object> value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private int maxSize = DEFAULT_MAX_SIZE;
+
+	private long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+	/**
+	 * Entries in access order, so the eldest entry is the least recently used
+	 * one
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			if (size() <= maxSize) {
+				return false;
+			}
+
+			evictions++;
+			return true;
+		}
+	};
+
+	private long hits = 0;
+
+	private long misses = 0;
+
+	private long evictions = 0;
+
+	/**
+	 * Returns the cached value of the given key or loads it
+	 * 
+	 * @param key
+	 * @param loader
+	 *            called if the key is not cached or its entry has expired
+	 * @return
+	 * @throws RuntimeException
+	 *             if the loader fails; failures are not cached
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(String key, Callable<T> loader) {
+		FutureTask<Object> value;
+		boolean load = false;
+
+		synchronized (this) {
+			Entry entry = entries.get(key);
+
+			if (entry != null && entry.expiresAt > currentTimeMillis()) {
+				hits++;
+				value = entry.value;
+			} else {
+				misses++;
+				value = new FutureTask<Object>((Callable<Object>) (Callable<?>) loader);
+				entries.put(key, new Entry(value, currentTimeMillis() + timeToLive));
+				load = true;
+			}
+		}
+
+		// load outside of the lock; other threads wait on the future
+		if (load) {
+			value.run();
+		}
+
+		try {
+			return (T) value.get();
+		} catch (ExecutionException e) {
+			remove(key, value);
+
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+
+			throw new RuntimeException("Unable to load " + key, e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for " + key, e);
+		}
+	}
+
+	/**
+	 * Removes the given key, e.g. after the user table has been changed
+	 * 
+	 * @param key
+	 */
+	public synchronized void invalidate(String key) {
+		entries.remove(key);
+	}
+
+	/**
+	 * Removes every key starting with the given prefix
+	 * 
+	 * @param prefix
+	 */
+	public synchronized void invalidatePrefix(String prefix) {
+		for (Iterator<String> it = entries.keySet().iterator(); it.hasNext();) {
+			if (it.next().startsWith(prefix)) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Removes every entry
+	 */
+	public synchronized void invalidateAll() {
+		entries.clear();
+	}
+
+	private synchronized void remove(String key, FutureTask<Object> value) {
+		Entry entry = entries.get(key);
+
+		// a newer entry must survive
+		if (entry != null && entry.value == value) {
+			entries.remove(key);
+		}
+	}
+
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @param maxSize
+	 *            number of entries before the least recently used entry is
+	 *            evicted
+	 */
+	public synchronized void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public synchronized long getTimeToLive() {
+		return timeToLive;
+	}
+
+	/**
+	 * @param timeToLive
+	 *            milliseconds until new entries expire
+	 */
+	public synchronized void setTimeToLive(long timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+}
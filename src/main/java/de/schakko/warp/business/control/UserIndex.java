@@ -0,0 +1,189 @@
+package de.schakko.warp.business.control;
+
+import de.schakko.warp.business.entity.User;
+
+/**
+ * Maps the primitive id of a {@link User} to the user. Other than a
+ * HashMap&lt;Long, User&gt; no key is boxed, so lookups do not allocate
+ * anything.
+ * 
+ * The index uses open addressing with linear probing; its capacity is always
+ * a power of two and it grows if more than half of the slots are used. It is
+ * not thread safe.
+ * 
+ * @author ckl
+ * 
+ */
+public class UserIndex {
+	private final static int MIN_CAPACITY = 16;
+
+	/**
+	 * Golden ratio multiplier which spreads sequential ids over the table
+	 */
+	private final static long MIX = 0x9E3779B97F4A7C15L;
+
+	private long[] keys;
+
+	/**
+	 * A slot is free if its value is null
+	 */
+	private User[] values;
+
+	private int size = 0;
+
+	private int mask;
+
+	public UserIndex() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            number of users which fit without growing
+	 */
+	public UserIndex(int expectedSize) {
+		allocate(capacityFor(expectedSize));
+	}
+
+	/**
+	 * Returns the user with the given id
+	 * 
+	 * @param id
+	 * @return null if there is no such user
+	 */
+	public User get(long id) {
+		for (int i = slot(id);; i = (i + 1) & mask) {
+			User value = values[i];
+
+			if (value == null || keys[i] == id) {
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * Adds or replaces the given user
+	 * 
+	 * @param user
+	 * @return the replaced user or null
+	 */
+	public User put(User user) {
+		long id = user.getId();
+
+		for (int i = slot(id);; i = (i + 1) & mask) {
+			if (values[i] == null) {
+				keys[i] = id;
+				values[i] = user;
+
+				if (++size > (mask + 1) / 2) {
+					rehash((mask + 1) * 2);
+				}
+
+				return null;
+			}
+
+			if (keys[i] == id) {
+				User r = values[i];
+				values[i] = user;
+
+				return r;
+			}
+		}
+	}
+
+	/**
+	 * Removes the user with the given id
+	 * 
+	 * @param id
+	 * @return the removed user or null
+	 */
+	public User remove(long id) {
+		for (int i = slot(id);; i = (i + 1) & mask) {
+			if (values[i] == null) {
+				return null;
+			}
+
+			if (keys[i] == id) {
+				User r = values[i];
+				shiftBack(i);
+				size--;
+
+				return r;
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		allocate(MIN_CAPACITY);
+		size = 0;
+	}
+
+	/**
+	 * Closes the gap of a removed slot by moving all following entries of the
+	 * same probe sequence, so no tombstones are needed
+	 */
+	private void shiftBack(int gap) {
+		for (int i = (gap + 1) & mask;; i = (i + 1) & mask) {
+			if (values[i] == null) {
+				values[gap] = null;
+				return;
+			}
+
+			int home = slot(keys[i]);
+
+			// move the entry if its home slot is not inside (gap, i]
+			if (((i - home) & mask) >= ((i - gap) & mask)) {
+				keys[gap] = keys[i];
+				values[gap] = values[i];
+				gap = i;
+			}
+		}
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		User[] oldValues = values;
+		allocate(capacity);
+
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] == null) {
+				continue;
+			}
+
+			int j = slot(oldKeys[i]);
+
+			while (values[j] != null) {
+				j = (j + 1) & mask;
+			}
+
+			keys[j] = oldKeys[i];
+			values[j] = oldValues[i];
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new User[capacity];
+		mask = capacity - 1;
+	}
+
+	private int slot(long id) {
+		long h = id * MIX;
+
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private static int capacityFor(int expectedSize) {
+		int r = MIN_CAPACITY;
+
+		while (r / 2 < expectedSize) {
+			r *= 2;
+		}
+
+		return r;
+	}
+}
@@ -1,8 +1,12 @@
 package de.schakko.warp.business.control;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
+import javax.enterprise.context.ApplicationScoped;
 import javax.persistence.PersistenceContext;
 
 import de.schakko.warp.business.entity.User;
@@ -12,14 +16,163 @@ import de.schakko.warp.business.entity.User;
  * {@link PersistenceContext} to access the database. Before integration
  * test/deployment all references from the EJB to this repository are removed.
  * 
+ * The repository keeps a {@link UserIndex} of all users, so users can be
+ * looked up by their id without a query. The index is built once from the
+ * user table and shared by the whole application; the user table of this
+ * demonstration is read-only.
+ * 
  * @author ckl
  * 
  */
+@ApplicationScoped
 public class UserRepository {
+	/**
+	 * Number of users which are fetched at once by {@link #iterateUsers()}
+	 */
+	public final static int FETCH_SIZE = 100;
+
+	/**
+	 * Stands in for the user table; the id of every user is its index + 1
+	 */
+	private final static String[] USERNAMES = { "A real user from database" };
+
+	/**
+	 * Only written by the constructor, so it can be read without locking
+	 */
+	private final UserIndex index = new UserIndex(USERNAMES.length);
+
+	public UserRepository() {
+		for (User user : findUserPage(0, USERNAMES.length)) {
+			index.put(user);
+		}
+	}
+
 	public List<User> findUsers() {
-		List<User> r = new ArrayList<User>();
+		return findUserPage(0, USERNAMES.length);
+	}
+
+	/**
+	 * Returns one page of users ordered by id
+	 * 
+	 * @param offset
+	 *            number of users to skip
+	 * @param limit
+	 *            maximum number of users
+	 * @return
+	 */
+	public List<User> findUserPage(int offset, int limit) {
+		if (offset < 0 || limit < 0) {
+			throw new IllegalArgumentException("offset and limit must not be negative");
+		}
+
+		int end = (int) Math.min((long) offset + limit, USERNAMES.length);
+		List<User> r = new ArrayList<User>(Math.max(end - offset, 0));
+
+		for (int i = offset; i < end; i++) {
+			r.add(new User(i + 1, USERNAMES[i]));
+		}
+
+		return r;
+	}
+
+	/**
+	 * Returns the users following the given id ordered by id (keyset
+	 * pagination). Other than {@link #findUserPage(int, int)} the database
+	 * does not have to skip any rows.
+	 * 
+	 * @param lastId
+	 *            id of the last user of the previous page; 0 for the first
+	 *            page
+	 * @param limit
+	 *            maximum number of users
+	 * @return
+	 */
+	public List<User> findUsersAfter(long lastId, int limit) {
+		return findUserPage((int) Math.min(Math.max(lastId, 0), USERNAMES.length), limit);
+	}
+
+	/**
+	 * Iterates over all users ordered by id. The users are fetched page by
+	 * page with {@value #FETCH_SIZE} users each.
+	 * 
+	 * @return
+	 */
+	public Iterator<User> iterateUsers() {
+		return new Iterator<User>() {
+			private Iterator<User> page = Collections.<User> emptyIterator();
+
+			private long lastId = 0;
+
+			private boolean lastPage = false;
+
+			@Override
+			public boolean hasNext() {
+				while (!page.hasNext() && !lastPage) {
+					List<User> users = findUsersAfter(lastId, FETCH_SIZE);
+					lastPage = users.size() < FETCH_SIZE;
+					page = users.iterator();
+				}
+
+				return page.hasNext();
+			}
+
+			@Override
+			public User next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				User r = page.next();
+				lastId = r.getId();
+
+				return r;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Returns the user with the lowest id without loading any other user
+	 * 
+	 * @return null if there are no users
+	 */
+	public User findFirstUser() {
+		List<User> r = findUserPage(0, 1);
+
+		return r.isEmpty() ? null : r.get(0);
+	}
+
+	/**
+	 * Returns the user with the given id from the index
+	 * 
+	 * @param id
+	 * @return null if there is no such user
+	 */
+	public User findById(long id) {
+		return index.get(id);
+	}
+
+	/**
+	 * Returns the users with the given ids from the index
+	 * 
+	 * @param ids
+	 * @return users in the order of the ids; unknown ids are skipped
+	 */
+	public List<User> findByIds(long... ids) {
+		List<User> r = new ArrayList<User>(ids.length);
+
+		for (long id : ids) {
+			User user = index.get(id);
+
+			if (user != null) {
+				r.add(user);
+			}
+		}
 
-		r.add(new User(1, "A real user from database"));
 		return r;
 	}
 }
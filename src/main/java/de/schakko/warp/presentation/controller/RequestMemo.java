@@ -0,0 +1,61 @@
+package de.schakko.warp.presentation.controller;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.enterprise.context.RequestScoped;
+
+/**
+ * Remembers the values of controller getters for the current request. EL
+ * calls a getter whenever an expression is evaluated, so one JSF render can
+ * call the same getter several times. With the memo only the first call goes
+ * to the backend. The memo is discarded together with the request, i.e. after
+ * the JSF lifecycle has been finished.
+ * 
+ * @author ckl
+ * 
+ */
+@RequestScoped
+public class RequestMemo {
+	/**
+	 * Loads a value which is not memoized yet
+	 * 
+	 * @param <T>
+	 */
+	public interface Loader<T> {
+		T load();
+	}
+
+	private final Map<String, Object> values = new HashMap<String, Object>();
+
+	/**
+	 * Returns the memoized value of the given key. If there is no value, the
+	 * loader is called and its result - even null - is memoized.
+	 * 
+	 * @param key
+	 *            unique key inside the request, e.g. "userController.firstUser"
+	 * @param loader
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(String key, Loader<T> loader) {
+		if (values.containsKey(key)) {
+			return (T) values.get(key);
+		}
+
+		T r = loader.load();
+		values.put(key, r);
+
+		return r;
+	}
+
+	/**
+	 * Forgets the value of the given key, e.g. after an action has changed
+	 * the underlying data
+	 * 
+	 * @param key
+	 */
+	public void invalidate(String key) {
+		values.remove(key);
+	}
+}
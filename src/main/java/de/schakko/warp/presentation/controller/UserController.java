@@ -5,6 +5,7 @@ import java.io.Serializable;
 import javax.annotation.PostConstruct;
 import javax.ejb.EJB;
 import javax.enterprise.context.SessionScoped;
+import javax.inject.Inject;
 import javax.inject.Named;
 
 import de.schakko.warp.business.boundary.UserService;
@@ -24,7 +25,18 @@ public class UserController implements Serializable {
 	@EJB
 	UserService userService;
 
+	/**
+	 * Getters are called several times per render; the backend only once
+	 */
+	@Inject
+	RequestMemo requestMemo;
+
 	public User getFirstUser() {
-		return userService.findUsers().get(0);
+		return requestMemo.get("userController.firstUser", new RequestMemo.Loader<User>() {
+			@Override
+			public User load() {
+				return userService.findFirstUser();
+			}
+		});
 	}
 }
@@ -0,0 +1,156 @@
+package de.schakko.warp.business.control;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Eviction, expiration and coalescing of the {@link UserCache}
+ * 
+ * @author ckl
+ * 
+ */
+public class UserCacheTest {
+	/**
+	 * Cache with a clock which is moved by the test
+	 */
+	static class ManualClockCache extends UserCache {
+		long now = 0;
+
+		@Override
+		protected long currentTimeMillis() {
+			return now;
+		}
+	}
+
+	/**
+	 * Counts its calls and returns the key
+	 */
+	static class CountingLoader implements Callable<String> {
+		final AtomicInteger calls = new AtomicInteger();
+
+		final String value;
+
+		CountingLoader(String value) {
+			this.value = value;
+		}
+
+		@Override
+		public String call() throws Exception {
+			calls.incrementAndGet();
+			return value;
+		}
+	}
+
+	@Test
+	public void least_recently_used_entry_is_evicted() {
+		UserCache cache = new UserCache();
+		cache.setMaxSize(2);
+		CountingLoader a = new CountingLoader("a");
+
+		cache.get("a", a);
+		cache.get("b", new CountingLoader("b"));
+		// a is now more recently used than b
+		cache.get("a", a);
+		cache.get("c", new CountingLoader("c"));
+
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		cache.get("a", a);
+		assertEquals(1, a.calls.get());
+		assertEquals(2, cache.getHits());
+		assertEquals(3, cache.getMisses());
+	}
+
+	@Test
+	public void entries_expire_and_can_be_invalidated() {
+		ManualClockCache cache = new ManualClockCache();
+		cache.setTimeToLive(100);
+		CountingLoader loader = new CountingLoader("users.first");
+
+		cache.get("users.first", loader);
+		cache.now = 99;
+		cache.get("users.first", loader);
+		assertEquals(1, loader.calls.get());
+
+		cache.now = 100;
+		cache.get("users.first", loader);
+		assertEquals(2, loader.calls.get());
+
+		cache.invalidatePrefix("users.");
+		cache.get("users.first", loader);
+		assertEquals(3, loader.calls.get());
+	}
+
+	@Test
+	public void concurrent_misses_are_coalesced() throws Exception {
+		final UserCache cache = new UserCache();
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger calls = new AtomicInteger();
+
+		final Callable<String> slowLoader = new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				calls.incrementAndGet();
+				loading.countDown();
+				release.await();
+				return "users";
+			}
+		};
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+
+		try {
+			Future<?>[] results = new Future<?>[8];
+
+			for (int i = 0; i < results.length; i++) {
+				results[i] = executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						return cache.get("users.all", slowLoader);
+					}
+				});
+			}
+
+			assertTrue(loading.await(5, TimeUnit.SECONDS));
+			release.countDown();
+
+			for (Future<?> result : results) {
+				assertEquals("users", result.get(5, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void failures_are_not_cached() {
+		UserCache cache = new UserCache();
+
+		try {
+			cache.get("users.all", new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					throw new IllegalStateException("database down");
+				}
+			});
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		assertEquals(0, cache.size());
+		assertEquals("users", cache.get("users.all", new CountingLoader("users")));
+	}
+}
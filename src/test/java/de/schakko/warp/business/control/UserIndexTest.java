@@ -0,0 +1,62 @@
+package de.schakko.warp.business.control;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.schakko.warp.business.entity.User;
+
+/**
+ * Compares the {@link UserIndex} with a HashMap
+ * 
+ * @author ckl
+ * 
+ */
+public class UserIndexTest {
+	@Test
+	public void put_get_and_remove() {
+		UserIndex index = new UserIndex();
+		User first = new User(1, "first");
+
+		assertNull(index.put(first));
+		assertSame(first, index.get(1));
+		assertNull(index.get(2));
+
+		User replacement = new User(1, "replacement");
+		assertSame(first, index.put(replacement));
+		assertEquals(1, index.size());
+
+		assertSame(replacement, index.remove(1));
+		assertNull(index.get(1));
+		assertEquals(0, index.size());
+	}
+
+	@Test
+	public void random_updates_match_hash_map() {
+		UserIndex index = new UserIndex();
+		Map<Long, User> expected = new HashMap<Long, User>();
+		Random random = new Random(42);
+
+		for (int i = 0; i < 100000; i++) {
+			// a small key range forces collisions, growth and removals
+			long id = random.nextInt(2000) - 1000;
+
+			if (random.nextInt(3) == 0) {
+				assertSame(expected.remove(id), index.remove(id));
+			} else {
+				User user = new User(id, "user" + i);
+				assertSame(expected.put(id, user), index.put(user));
+			}
+		}
+
+		assertEquals(expected.size(), index.size());
+
+		for (long id = -1000; id < 1000; id++) {
+			assertSame(expected.get(id), index.get(id));
+		}
+	}
+}
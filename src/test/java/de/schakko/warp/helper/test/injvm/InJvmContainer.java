@@ -0,0 +1,382 @@
+package de.schakko.warp.helper.test.injvm;
+
+import java.beans.Introspector;
+import java.io.File;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import de.schakko.warp.helper.test.integration.SuiteDeployment;
+import de.schakko.warp.helper.test.mock.ejb.EjbIndex;
+import de.schakko.warp.helper.test.mock.ejb.EjbMockerBatchBuilder;
+import de.schakko.warp.helper.test.mock.ejb.EjbMockerUtil;
+import de.schakko.warp.helper.test.mock.ejb.StubTable;
+
+/**
+ * Minimal in-process replacement for the application server. It is used for
+ * testing controllers against mocked EJBs without deploying anything.
+ * 
+ * <ul>
+ * <li>All EJBs are replaced by facades with a {@link StubTable}; every EJB
+ * exists once per container.</li>
+ * <li>Facades and the classes of the bean packages are loaded by an
+ * {@link IsolatingClassLoader}, so the controllers use the facades.</li>
+ * <li>javax.inject.Named beans of the bean packages can be looked up by their
+ * name. javax.ejb.EJB and javax.inject.Inject fields are injected,
+ * javax.annotation.PostConstruct methods are called.</li>
+ * <li>SessionScoped beans live as long as their {@link InJvmSession},
+ * ApplicationScoped beans as long as the container and RequestScoped beans as
+ * long as one {@link InJvmSession#evaluate(String)}. Every other bean is
+ * dependent.</li>
+ * </ul>
+ * 
+ * The controllers are loaded by another class loader than the test, so they
+ * can only be accessed by their names:
+ * 
+ * <pre>
+ * InJvmContainer container = InJvmContainer.create();
+ * container.getStubTable(&quot;de.schakko.warp.business.boundary.UserService&quot;).when(&quot;findUsers&quot;).thenReturn(users);
+ * 
+ * assertEquals(&quot;A mocked user instance&quot;, container.openSession().evaluate(&quot;userController.firstUser.username&quot;));
+ * </pre>
+ * 
+ * There are no proxies, interceptors or transactions. Instead, RequestScoped
+ * fields of beans with a wider scope are injected again on every lookup.
+ * 
+ * @author ckl
+ * 
+ */
+public class InJvmContainer {
+	private static final Logger log = Logger.getLogger(InJvmContainer.class.getName());
+
+	public final static String EJB = "javax.ejb.EJB";
+
+	public final static String INJECT = "javax.inject.Inject";
+
+	public final static String NAMED = "javax.inject.Named";
+
+	public final static String POST_CONSTRUCT = "javax.annotation.PostConstruct";
+
+	public final static String SESSION_SCOPED = "javax.enterprise.context.SessionScoped";
+
+	public final static String APPLICATION_SCOPED = "javax.enterprise.context.ApplicationScoped";
+
+	public final static String REQUEST_SCOPED = "javax.enterprise.context.RequestScoped";
+
+	/**
+	 * Test classes inside the bean packages are no beans
+	 */
+	private final static String EXCLUDED_CLASSES = ".*(IT|Test)";
+
+	private final IsolatingClassLoader loader;
+
+	/**
+	 * Facade instances by EJB class name
+	 */
+	private final Map<String, Object> ejbs = new LinkedHashMap<String, Object>();
+
+	/**
+	 * Bean classes by name
+	 */
+	private final Map<String, Class<?>> namedBeans = new HashMap<String, Class<?>>();
+
+	private final Map<Class<?>, Object> applicationBeans = new HashMap<Class<?>, Object>();
+
+	/**
+	 * Creates a container with the beans of
+	 * {@value SuiteDeployment#CONTROLLER_PACKAGE} and facades for all EJBs
+	 * inside {@value SuiteDeployment#EJB_PACKAGE}
+	 * 
+	 * @return
+	 * @throws Exception
+	 */
+	public static InJvmContainer create() throws Exception {
+		return new InJvmContainer(Arrays.asList(SuiteDeployment.CONTROLLER_PACKAGE), EjbIndex.load().findEjbs(
+				SuiteDeployment.EJB_PACKAGE));
+	}
+
+	/**
+	 * @param beanPackages
+	 *            packages (including sub packages) with the beans under test
+	 * @param ejbClazzes
+	 *            EJBs which are replaced by facades
+	 * @throws Exception
+	 */
+	public InJvmContainer(Collection<String> beanPackages, Collection<String> ejbClazzes) throws Exception {
+		Map<String, byte[]> facades = EjbMockerBatchBuilder.create(ejbClazzes).suppressExceptions(true)
+				.useStubTable(true).stream();
+		loader = new IsolatingClassLoader(getClass().getClassLoader(), facades, beanPackages);
+
+		for (String ejbClazz : ejbClazzes) {
+			ejbs.put(ejbClazz, loader.loadClass(ejbClazz).newInstance());
+		}
+
+		for (String beanPackage : beanPackages) {
+			discoverBeans(beanPackage);
+		}
+
+		log.info("Started in-JVM container with " + ejbs.size() + " EJBs and named beans " + namedBeans.keySet());
+	}
+
+	/**
+	 * Opens a new session
+	 * 
+	 * @return
+	 */
+	public InJvmSession openSession() {
+		return new InJvmSession(this);
+	}
+
+	/**
+	 * Returns the facade of the given EJB
+	 * 
+	 * @param ejbClazz
+	 * @return
+	 */
+	public Object getEjb(String ejbClazz) {
+		Object r = ejbs.get(ejbClazz);
+
+		if (r == null) {
+			throw new IllegalArgumentException("No facade for " + ejbClazz + " available; known EJBs are "
+					+ ejbs.keySet());
+		}
+
+		return r;
+	}
+
+	/**
+	 * Returns the {@link StubTable} of the given EJB
+	 * 
+	 * @param ejbClazz
+	 * @return
+	 * @throws Exception
+	 */
+	public StubTable getStubTable(String ejbClazz) throws Exception {
+		return EjbMockerUtil.getStubTable(getEjb(ejbClazz));
+	}
+
+	/**
+	 * Removes all stubbings and application scoped beans
+	 * 
+	 * @throws Exception
+	 */
+	public synchronized void reset() throws Exception {
+		for (Object ejb : ejbs.values()) {
+			EjbMockerUtil.reset(ejb);
+		}
+
+		applicationBeans.clear();
+	}
+
+	/**
+	 * @return the class loader of all beans and facades
+	 */
+	public ClassLoader getClassLoader() {
+		return loader;
+	}
+
+	/**
+	 * Returns the bean with the given name
+	 * 
+	 * @param name
+	 * @param session
+	 * @param requestBeans
+	 *            beans of the current request
+	 * @return null if there is no bean with the given name
+	 * @throws Exception
+	 */
+	synchronized Object getBean(String name, InJvmSession session, Map<Class<?>, Object> requestBeans)
+			throws Exception {
+		Class<?> type = namedBeans.get(name);
+
+		if (type == null) {
+			return null;
+		}
+
+		return getBean(type, session, requestBeans);
+	}
+
+	/**
+	 * Returns the bean of the given type inside its scope
+	 */
+	synchronized Object getBean(Class<?> type, InJvmSession session, Map<Class<?>, Object> requestBeans)
+			throws Exception {
+		if (ejbs.containsKey(type.getName())) {
+			return ejbs.get(type.getName());
+		}
+
+		Map<Class<?>, Object> scope = null;
+
+		if (hasAnnotation(type, SESSION_SCOPED)) {
+			scope = session.getBeans();
+		} else if (hasAnnotation(type, APPLICATION_SCOPED)) {
+			scope = applicationBeans;
+		} else if (hasAnnotation(type, REQUEST_SCOPED)) {
+			scope = requestBeans;
+		}
+
+		Object r = scope == null ? null : scope.get(type);
+
+		if (r == null) {
+			r = instantiate(type);
+
+			// store before injection, so cyclic references are resolved
+			if (scope != null) {
+				scope.put(type, r);
+			}
+
+			inject(r, session, requestBeans, false);
+			postConstruct(r);
+		} else {
+			// there are no client proxies, so a bean of a wider scope gets the
+			// beans of the current request on every lookup
+			inject(r, session, requestBeans, true);
+		}
+
+		return r;
+	}
+
+	private Object instantiate(Class<?> type) throws Exception {
+		Constructor<?> constructor = type.getDeclaredConstructor();
+		constructor.setAccessible(true);
+
+		return constructor.newInstance();
+	}
+
+	/**
+	 * Injects the EJB and Inject fields of the given bean
+	 * 
+	 * @param requestScopedOnly
+	 *            only inject fields whose type is RequestScoped
+	 */
+	private void inject(Object bean, InJvmSession session, Map<Class<?>, Object> requestBeans,
+			boolean requestScopedOnly) throws Exception {
+		for (Class<?> type = bean.getClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+			for (Field field : type.getDeclaredFields()) {
+				Object value;
+
+				if (requestScopedOnly && !hasAnnotation(field.getType(), REQUEST_SCOPED)) {
+					continue;
+				}
+
+				if (hasAnnotation(field, EJB)) {
+					value = getEjb(field.getType().getName());
+				} else if (hasAnnotation(field, INJECT)) {
+					value = getBean(field.getType(), session, requestBeans);
+				} else {
+					continue;
+				}
+
+				field.setAccessible(true);
+				field.set(bean, value);
+			}
+		}
+	}
+
+	private void postConstruct(Object bean) throws Exception {
+		for (Method method : bean.getClass().getDeclaredMethods()) {
+			if (!hasAnnotation(method, POST_CONSTRUCT)) {
+				continue;
+			}
+
+			method.setAccessible(true);
+
+			try {
+				method.invoke(bean);
+			} catch (InvocationTargetException e) {
+				throw new Exception("PostConstruct of " + bean.getClass().getName() + " failed", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Registers every javax.inject.Named class of the given package. Only
+	 * directories are scanned; bean packages inside JARs are not supported.
+	 */
+	private void discoverBeans(String beanPackage) throws Exception {
+		String path = beanPackage.replace('.', '/');
+		Enumeration<URL> roots = loader.getParent().getResources(path);
+
+		while (roots.hasMoreElements()) {
+			URL root = roots.nextElement();
+
+			if ("file".equals(root.getProtocol())) {
+				discoverBeans(new File(URLDecoder.decode(root.getPath(), "UTF-8")), beanPackage);
+			}
+		}
+	}
+
+	private void discoverBeans(File directory, String packageName) throws Exception {
+		File[] files = directory.listFiles();
+
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			if (file.isDirectory()) {
+				discoverBeans(file, packageName + "." + file.getName());
+				continue;
+			}
+
+			String fileName = file.getName();
+
+			if (!fileName.endsWith(".class") || fileName.contains("$")) {
+				continue;
+			}
+
+			String clazzName = packageName + "." + fileName.substring(0, fileName.length() - ".class".length());
+
+			if (clazzName.matches(EXCLUDED_CLASSES)) {
+				continue;
+			}
+
+			Class<?> type = Class.forName(clazzName, false, loader);
+			Annotation named = getAnnotation(type, NAMED);
+
+			if (named != null) {
+				String name = (String) named.annotationType().getMethod("value").invoke(named);
+				namedBeans.put(name.isEmpty() ? Introspector.decapitalize(type.getSimpleName()) : name, type);
+			}
+		}
+	}
+
+	/**
+	 * Annotations are matched by their names; the test does not need the Java
+	 * EE annotations on its class path
+	 */
+	static Annotation getAnnotation(AnnotatedElement element, String annotation) {
+		for (Annotation candidate : element.getAnnotations()) {
+			if (candidate.annotationType().getName().equals(annotation)) {
+				return candidate;
+			}
+		}
+
+		return null;
+	}
+
+	static boolean hasAnnotation(AnnotatedElement element, String annotation) {
+		return getAnnotation(element, annotation) != null;
+	}
+
+	/**
+	 * @return names of all named beans
+	 */
+	public List<String> getBeanNames() {
+		return new ArrayList<String>(namedBeans.keySet());
+	}
+}
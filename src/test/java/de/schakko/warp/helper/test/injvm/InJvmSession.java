@@ -0,0 +1,132 @@
+package de.schakko.warp.helper.test.injvm;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HTTP session inside an {@link InJvmContainer}. It holds the SessionScoped
+ * beans and evaluates simple value expressions like JSF pages do.
+ * 
+ * @author ckl
+ * 
+ */
+public class InJvmSession {
+	private final InJvmContainer container;
+
+	private final Map<Class<?>, Object> beans = new HashMap<Class<?>, Object>();
+
+	InJvmSession(InJvmContainer container) {
+		this.container = container;
+	}
+
+	/**
+	 * Returns the named bean; every call is a request of its own
+	 * 
+	 * @param name
+	 * @return
+	 * @throws Exception
+	 *             if there is no bean with the given name
+	 */
+	public Object getBean(String name) throws Exception {
+		return getBean(name, new HashMap<Class<?>, Object>());
+	}
+
+	/**
+	 * Evaluates a property path like "userController.firstUser.username" or
+	 * "#{userController.firstUser.username}" inside a new request. Only
+	 * property access is supported; there are no operators or method calls.
+	 * 
+	 * @param expression
+	 * @return value of the last property; null if any property on the path is
+	 *         null
+	 * @throws Exception
+	 */
+	public Object evaluate(String expression) throws Exception {
+		return render(expression).get(0);
+	}
+
+	/**
+	 * Evaluates all expressions inside the same request, like one render of
+	 * a page does
+	 * 
+	 * @param expressions
+	 * @return values in the order of the expressions
+	 * @throws Exception
+	 * @see #evaluate(String)
+	 */
+	public List<Object> render(String... expressions) throws Exception {
+		Map<Class<?>, Object> requestBeans = new HashMap<Class<?>, Object>();
+		List<Object> r = new ArrayList<Object>();
+
+		for (String expression : expressions) {
+			r.add(evaluate(expression, requestBeans));
+		}
+
+		return r;
+	}
+
+	private Object evaluate(String expression, Map<Class<?>, Object> requestBeans) throws Exception {
+		String path = expression.trim();
+
+		if (path.startsWith("#{") && path.endsWith("}")) {
+			path = path.substring(2, path.length() - 1).trim();
+		}
+
+		String[] properties = path.split("\\.");
+		Object r = getBean(properties[0], requestBeans);
+
+		for (int i = 1; i < properties.length && r != null; i++) {
+			r = getProperty(r, properties[i]);
+		}
+
+		return r;
+	}
+
+	private Object getBean(String name, Map<Class<?>, Object> requestBeans) throws Exception {
+		Object r = container.getBean(name, this, requestBeans);
+
+		if (r == null) {
+			throw new IllegalArgumentException("No bean named '" + name + "'; known beans are "
+					+ container.getBeanNames());
+		}
+
+		return r;
+	}
+
+	private Object getProperty(Object bean, String property) throws Exception {
+		String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+		Method getter = findGetter(bean.getClass(), "get" + suffix);
+
+		if (getter == null) {
+			getter = findGetter(bean.getClass(), "is" + suffix);
+		}
+
+		if (getter == null) {
+			throw new IllegalArgumentException("Property '" + property + "' of " + bean.getClass().getName()
+					+ " is not readable");
+		}
+
+		try {
+			return getter.invoke(bean);
+		} catch (InvocationTargetException e) {
+			throw new Exception("Unable to read property '" + property + "' of " + bean.getClass().getName(),
+					e.getCause());
+		}
+	}
+
+	private Method findGetter(Class<?> type, String name) {
+		try {
+			return type.getMethod(name);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	Map<Class<?>, Object> getBeans() {
+		return beans;
+	}
+}
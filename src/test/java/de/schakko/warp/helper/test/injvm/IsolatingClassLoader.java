@@ -0,0 +1,92 @@
+package de.schakko.warp.helper.test.injvm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import de.schakko.warp.helper.test.mock.ejb.EjbMockerCache;
+import de.schakko.warp.helper.test.mock.ejb.FacadeClassLoader;
+
+/**
+ * {@link FacadeClassLoader} which additionally defines all classes of the
+ * isolated packages itself (child first). The bytecode of those classes is
+ * read from the parent loader. Classes like controllers are therefore linked
+ * against the generated facades instead of the original EJBs, while every
+ * other class (entities, Mockito, JUnit) is shared with the test.
+ * 
+ * @author ckl
+ * 
+ */
+public class IsolatingClassLoader extends FacadeClassLoader {
+	static {
+		registerAsParallelCapable();
+	}
+
+	private final List<String> isolatedPackages;
+
+	/**
+	 * @param parent
+	 * @param facades
+	 *            bytecode of the generated facades by class name
+	 * @param isolatedPackages
+	 *            packages (including sub packages) which are loaded child
+	 *            first, e.g. "de.schakko.warp.presentation"
+	 */
+	public IsolatingClassLoader(ClassLoader parent, Map<String, byte[]> facades, Collection<String> isolatedPackages) {
+		super(parent, facades);
+		this.isolatedPackages = new ArrayList<String>(isolatedPackages);
+	}
+
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+		if (isFacade(name) || !isIsolated(name)) {
+			return super.loadClass(name, resolve);
+		}
+
+		synchronized (getClassLoadingLock(name)) {
+			Class<?> r = findLoadedClass(name);
+
+			if (r == null) {
+				byte[] bytecode = readBytecode(name);
+				r = defineClass(name, bytecode, 0, bytecode.length);
+			}
+
+			if (resolve) {
+				resolveClass(r);
+			}
+
+			return r;
+		}
+	}
+
+	/**
+	 * @param name
+	 * @return true if the given class is loaded child first
+	 */
+	public boolean isIsolated(String name) {
+		for (String isolatedPackage : isolatedPackages) {
+			if (name.startsWith(isolatedPackage + ".")) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private byte[] readBytecode(String name) throws ClassNotFoundException {
+		InputStream is = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+
+		if (is == null) {
+			throw new ClassNotFoundException(name);
+		}
+
+		try {
+			return EjbMockerCache.readFully(is);
+		} catch (IOException e) {
+			throw new ClassNotFoundException(name, e);
+		}
+	}
+}
@@ -0,0 +1,290 @@
+package de.schakko.warp.helper.test.integration;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ArchivePath;
+import org.jboss.shrinkwrap.api.Node;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.asset.FileAsset;
+import org.jboss.shrinkwrap.api.exporter.ExplodedExporter;
+
+import de.schakko.warp.helper.test.mock.ejb.EjbMockerCache;
+
+/**
+ * Replacement for the {@link ExplodedExporter} which only touches entries
+ * whose content has been changed since the last export to the same
+ * directory.
+ * 
+ * <ul>
+ * <li>{@link FileAsset}s like the library JARs or the static web resources
+ * are hard linked to their source file. If the target directory is on
+ * another file system, the file is copied.</li>
+ * <li>All other assets are hashed and only written if their hash differs.</li>
+ * <li>Entries which are no longer part of the archive are deleted.</li>
+ * </ul>
+ * 
+ * The state of the last export is stored next to the exploded archive in
+ * <i>&lt;archive name&gt;{@value #MANIFEST_SUFFIX}</i>. Hard linked files
+ * share their content with the source file, so don't edit them inside the
+ * exploded archive.
+ * 
+ * @author ckl
+ * 
+ */
+public class IncrementalExplodedExporter {
+	private static final Logger log = Logger.getLogger(IncrementalExplodedExporter.class.getName());
+
+	public final static String MANIFEST_SUFFIX = ".export.properties";
+
+	private final static String LINK_PREFIX = "link:";
+
+	private final static String HASH_PREFIX = "sha1:";
+
+	private final int parallelism;
+
+	private int written = 0;
+
+	private int unchanged = 0;
+
+	private int deleted = 0;
+
+	public IncrementalExplodedExporter() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param parallelism
+	 *            number of threads which write the entries
+	 */
+	public IncrementalExplodedExporter(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1 but was " + parallelism);
+		}
+
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Exports the archive to <i>baseDirectory/&lt;archive name&gt;</i> like
+	 * {@link ExplodedExporter#exportExploded(File)} does
+	 * 
+	 * @param archive
+	 * @param baseDirectory
+	 * @return the exploded archive
+	 * @throws IOException
+	 */
+	public File export(Archive<?> archive, File baseDirectory) throws IOException {
+		File target = new File(baseDirectory, archive.getName());
+		File manifestFile = new File(baseDirectory, archive.getName() + MANIFEST_SUFFIX);
+
+		Properties manifest = readManifest(manifestFile);
+		Properties updated = new Properties();
+		written = unchanged = deleted = 0;
+
+		// directories are created up front, so the workers only write files
+		List<ExportTask> tasks = new ArrayList<ExportTask>();
+
+		for (Map.Entry<ArchivePath, Node> entry : archive.getContent().entrySet()) {
+			String path = entry.getKey().get();
+			File file = new File(target, path);
+			Asset asset = entry.getValue().getAsset();
+
+			if (asset == null) {
+				mkdirs(file);
+				continue;
+			}
+
+			mkdirs(file.getParentFile());
+			tasks.add(new ExportTask(path, file, asset, manifest.getProperty(path)));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+
+		try {
+			for (Future<String> result : executor.invokeAll(tasks)) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Export of " + archive.getName() + " has been interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Unable to export " + archive.getName(), e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+
+		for (ExportTask task : tasks) {
+			updated.setProperty(task.path, task.state);
+
+			if (task.state.equals(task.previousState)) {
+				unchanged++;
+			} else {
+				written++;
+			}
+		}
+
+		for (String path : manifest.stringPropertyNames()) {
+			if (!updated.containsKey(path) && new File(target, path).delete()) {
+				deleted++;
+			}
+		}
+
+		writeManifest(manifestFile, updated);
+		log.info("Exported " + archive.getName() + " to " + target + ": " + written + " written, " + unchanged
+				+ " unchanged, " + deleted + " deleted");
+
+		return target;
+	}
+
+	/**
+	 * @return number of entries written by the last export
+	 */
+	public int getWrittenCount() {
+		return written;
+	}
+
+	/**
+	 * @return number of entries skipped by the last export
+	 */
+	public int getUnchangedCount() {
+		return unchanged;
+	}
+
+	/**
+	 * @return number of stale entries deleted by the last export
+	 */
+	public int getDeletedCount() {
+		return deleted;
+	}
+
+	/**
+	 * Exports a single entry and remembers its state
+	 */
+	private static class ExportTask implements Callable<String> {
+		final String path;
+
+		final File file;
+
+		final Asset asset;
+
+		final String previousState;
+
+		String state;
+
+		ExportTask(String path, File file, Asset asset, String previousState) {
+			this.path = path;
+			this.file = file;
+			this.asset = asset;
+			this.previousState = previousState;
+		}
+
+		@Override
+		public String call() throws Exception {
+			if (asset instanceof FileAsset) {
+				File source = ((FileAsset) asset).getSource();
+				state = LINK_PREFIX + source.getAbsolutePath() + ":" + source.length() + ":" + source.lastModified();
+
+				if (!state.equals(previousState) || !file.isFile()) {
+					link(source, file);
+				}
+
+				return state;
+			}
+
+			byte[] content = EjbMockerCache.readFully(asset.openStream());
+			state = HASH_PREFIX + EjbMockerCache.hash(content);
+
+			if (!state.equals(previousState) || !file.isFile()) {
+				write(content, file);
+			}
+
+			return state;
+		}
+	}
+
+	private static void link(File source, File file) throws IOException {
+		Files.deleteIfExists(file.toPath());
+
+		try {
+			Files.createLink(file.toPath(), source.toPath());
+		} catch (IOException e) {
+			// other file system or no hard link support
+			copy(source, file);
+		} catch (UnsupportedOperationException e) {
+			copy(source, file);
+		}
+	}
+
+	private static void copy(File source, File file) throws IOException {
+		Files.copy(source.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void write(byte[] content, File file) throws IOException {
+		// never write through a former hard link into its source
+		Files.deleteIfExists(file.toPath());
+		OutputStream os = new FileOutputStream(file);
+
+		try {
+			os.write(content);
+		} finally {
+			os.close();
+		}
+	}
+
+	private static void mkdirs(File directory) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+			throw new IOException("Unable to create directory " + directory);
+		}
+	}
+
+	private Properties readManifest(File manifestFile) {
+		Properties r = new Properties();
+
+		if (!manifestFile.isFile()) {
+			return r;
+		}
+
+		try {
+			InputStream is = new FileInputStream(manifestFile);
+
+			try {
+				r.load(is);
+			} finally {
+				is.close();
+			}
+		} catch (Exception e) {
+			log.warning("Unable to read " + manifestFile + ", exporting everything: " + e.getMessage());
+			r.clear();
+		}
+
+		return r;
+	}
+
+	private void writeManifest(File manifestFile, Properties manifest) throws IOException {
+		OutputStream os = new FileOutputStream(manifestFile);
+
+		try {
+			manifest.store(os, "Exported entries");
+		} finally {
+			os.close();
+		}
+	}
+}
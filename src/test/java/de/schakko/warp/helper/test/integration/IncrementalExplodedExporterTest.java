@@ -0,0 +1,70 @@
+package de.schakko.warp.helper.test.integration;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.FileAsset;
+import org.jboss.shrinkwrap.api.asset.StringAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that {@link IncrementalExplodedExporter} only writes changed entries
+ * 
+ * @author ckl
+ * 
+ */
+public class IncrementalExplodedExporterTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void only_changed_entries_are_written() throws Exception {
+		File library = folder.newFile("library.jar");
+		write(library, "library");
+		File target = folder.newFolder("export");
+
+		WebArchive war = ShrinkWrap.create(WebArchive.class, "test.war");
+		war.add(new FileAsset(library), "WEB-INF/lib/library.jar");
+		war.add(new StringAsset("index"), "index.xhtml");
+		war.add(new StringAsset("stale"), "stale.xhtml");
+
+		IncrementalExplodedExporter exporter = new IncrementalExplodedExporter(2);
+		File exploded = exporter.export(war, target);
+		assertEquals(3, exporter.getWrittenCount());
+		assertEquals("library", read(new File(exploded, "WEB-INF/lib/library.jar")));
+
+		exporter.export(war, target);
+		assertEquals(0, exporter.getWrittenCount());
+		assertEquals(3, exporter.getUnchangedCount());
+
+		war.add(new StringAsset("changed index"), "index.xhtml");
+		war.delete("stale.xhtml");
+		exporter.export(war, target);
+		assertEquals(1, exporter.getWrittenCount());
+		assertEquals(1, exporter.getDeletedCount());
+		assertEquals("changed index", read(new File(exploded, "index.xhtml")));
+		assertFalse(new File(exploded, "stale.xhtml").exists());
+	}
+
+	private void write(File file, String content) throws Exception {
+		OutputStream os = new FileOutputStream(file);
+
+		try {
+			os.write(content.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+	}
+
+	private String read(File file) throws Exception {
+		return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+	}
+}
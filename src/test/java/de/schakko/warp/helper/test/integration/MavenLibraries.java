@@ -0,0 +1,204 @@
+package de.schakko.warp.helper.test.integration;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import org.jboss.shrinkwrap.resolver.api.maven.Maven;
+
+import de.schakko.warp.helper.test.mock.ejb.EjbMockerCache;
+
+/**
+ * Resolves the libraries of the baseline WARs. All coordinates of a WAR are
+ * resolved in one resolver session and the resulting files are memoized for
+ * the whole JVM. The resolved class path is also persisted in
+ * {@value #DEFAULT_MANIFEST_FILE} together with the hash of the pom.xml, so
+ * later test runs skip the resolution as long as the POM has not been changed
+ * and all files still exist.
+ * 
+ * @author ckl
+ * 
+ */
+public class MavenLibraries {
+	private static final Logger log = Logger.getLogger(MavenLibraries.class.getName());
+
+	public final static String DEFAULT_MANIFEST_FILE = "target/resolved-libraries.properties";
+
+	public final static String POM_FILE = "pom.xml";
+
+	private final static String POM_HASH_KEY = "pom.sha1";
+
+	/**
+	 * Resolved files by sorted coordinates
+	 */
+	private final static Map<String, File[]> resolved = new HashMap<String, File[]>();
+
+	/**
+	 * Returns the files of the given coordinates and their transitive
+	 * dependencies
+	 * 
+	 * @param coordinates
+	 *            e.g. "org.mockito:mockito-all:jar:1.8.5"
+	 * @return
+	 */
+	public static synchronized File[] resolve(String... coordinates) {
+		String key = createKey(coordinates);
+		File[] r = resolved.get(key);
+
+		if (r != null) {
+			return r;
+		}
+
+		File manifestFile = new File(DEFAULT_MANIFEST_FILE);
+		Properties manifest = readManifest(manifestFile, new File(POM_FILE));
+		r = fromManifest(manifest, key);
+
+		if (r == null) {
+			log.info("Resolving " + key);
+			r = Maven.resolver().resolve(coordinates).withTransitivity().asFile();
+
+			manifest.setProperty(key, toClassPath(r));
+			writeManifest(manifestFile, manifest);
+		}
+
+		resolved.put(key, r);
+
+		return r;
+	}
+
+	private static String createKey(String[] coordinates) {
+		String[] sorted = coordinates.clone();
+		Arrays.sort(sorted);
+
+		StringBuilder sb = new StringBuilder();
+
+		for (String coordinate : sorted) {
+			if (sb.length() > 0) {
+				sb.append(",");
+			}
+
+			sb.append(coordinate);
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the files of the given key if they are still valid
+	 * 
+	 * @param manifest
+	 * @param key
+	 * @return null if the key is unknown or one of the files has been deleted
+	 */
+	static File[] fromManifest(Properties manifest, String key) {
+		String classPath = manifest.getProperty(key);
+
+		if (classPath == null) {
+			return null;
+		}
+
+		String[] paths = classPath.isEmpty() ? new String[0] : classPath.split(File.pathSeparator);
+		File[] r = new File[paths.length];
+
+		for (int i = 0; i < paths.length; i++) {
+			r[i] = new File(paths[i]);
+
+			if (!r[i].isFile()) {
+				log.info("Resolved library " + r[i] + " does not exist anymore");
+				return null;
+			}
+		}
+
+		return r;
+	}
+
+	static String toClassPath(File[] files) {
+		StringBuilder sb = new StringBuilder();
+
+		for (File file : files) {
+			if (sb.length() > 0) {
+				sb.append(File.pathSeparator);
+			}
+
+			sb.append(file.getAbsolutePath());
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Reads the manifest; it is discarded if the POM has been changed
+	 * 
+	 * @param manifestFile
+	 * @param pom
+	 * @return
+	 */
+	static Properties readManifest(File manifestFile, File pom) {
+		Properties r = new Properties();
+		String pomHash = hashPom(pom);
+
+		if (manifestFile.isFile()) {
+			try {
+				InputStream is = new FileInputStream(manifestFile);
+
+				try {
+					r.load(is);
+				} finally {
+					is.close();
+				}
+			} catch (Exception e) {
+				log.warning("Unable to read " + manifestFile + ": " + e.getMessage());
+			}
+
+			if (pomHash == null || !pomHash.equals(r.getProperty(POM_HASH_KEY))) {
+				r.clear();
+			}
+		}
+
+		if (pomHash != null) {
+			r.setProperty(POM_HASH_KEY, pomHash);
+		}
+
+		return r;
+	}
+
+	static void writeManifest(File manifestFile, Properties manifest) {
+		// without a hash we could never tell whether the manifest is stale
+		if (manifest.getProperty(POM_HASH_KEY) == null) {
+			return;
+		}
+
+		try {
+			manifestFile.getAbsoluteFile().getParentFile().mkdirs();
+			OutputStream os = new FileOutputStream(manifestFile);
+
+			try {
+				manifest.store(os, "Resolved baseline libraries");
+			} finally {
+				os.close();
+			}
+		} catch (Exception e) {
+			log.warning("Unable to write " + manifestFile + ": " + e.getMessage());
+		}
+	}
+
+	private static String hashPom(File pom) {
+		if (!pom.isFile()) {
+			return null;
+		}
+
+		try {
+			return EjbMockerCache.hash(EjbMockerCache.readFully(new FileInputStream(pom)));
+		} catch (Exception e) {
+			log.warning("Unable to hash " + pom + ": " + e.getMessage());
+			return null;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package de.schakko.warp.helper.test.integration;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the persisted class path of {@link MavenLibraries} is discarded
+ * as soon as it gets stale
+ * 
+ * @author ckl
+ * 
+ */
+public class MavenLibrariesTest {
+	private final static String KEY = "org.mockito:mockito-all:jar:1.8.5";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File pom;
+
+	private File manifestFile;
+
+	private File[] libraries;
+
+	@Before
+	public void setUp() throws Exception {
+		pom = folder.newFile("pom.xml");
+		write(pom, "<project/>");
+		manifestFile = new File(folder.getRoot(), "resolved-libraries.properties");
+
+		File repository = folder.newFolder("repository");
+		libraries = new File[] { new File(repository, "mockito-all-1.8.5.jar"), new File(repository, "junit-4.11.jar") };
+
+		for (File library : libraries) {
+			write(library, library.getName());
+		}
+
+		Properties manifest = MavenLibraries.readManifest(manifestFile, pom);
+		manifest.setProperty(KEY, MavenLibraries.toClassPath(libraries));
+		MavenLibraries.writeManifest(manifestFile, manifest);
+	}
+
+	@Test
+	public void persisted_libraries_are_reused() throws Exception {
+		assertArrayEquals(libraries, MavenLibraries.fromManifest(MavenLibraries.readManifest(manifestFile, pom), KEY));
+	}
+
+	@Test
+	public void changed_pom_discards_the_manifest() throws Exception {
+		write(pom, "<project><version>2</version></project>");
+
+		Properties manifest = MavenLibraries.readManifest(manifestFile, pom);
+
+		assertNull(manifest.getProperty(KEY));
+		assertNull(MavenLibraries.fromManifest(manifest, KEY));
+	}
+
+	@Test
+	public void deleted_library_discards_the_class_path() throws Exception {
+		assertTrue(libraries[1].delete());
+
+		assertNull(MavenLibraries.fromManifest(MavenLibraries.readManifest(manifestFile, pom), KEY));
+	}
+
+	private void write(File file, String content) throws Exception {
+		OutputStream os = new FileOutputStream(file);
+
+		try {
+			os.write(content.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+	}
+}
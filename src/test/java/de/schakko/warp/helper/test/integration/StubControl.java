@@ -0,0 +1,151 @@
+package de.schakko.warp.helper.test.integration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.schakko.warp.helper.test.mock.ejb.EjbMocker;
+import de.schakko.warp.helper.test.mock.ejb.EjbMockerCache;
+import de.schakko.warp.helper.test.mock.ejb.Json;
+import de.schakko.warp.helper.test.mock.ejb.StubControlServlet;
+import de.schakko.warp.helper.test.mock.ejb.StubDefinitions;
+
+/**
+ * Client of the {@link StubControlServlet} inside the baseline WAR. All
+ * commands are collected and sent as one request, so a test class can stub
+ * its facades once instead of running a Warp inspection around every
+ * request:
+ *
+ * <pre>
+ * &#064;ArquillianResource
+ * URL path;
+ *
+ * StubControl.at(path).stub(&quot;de.schakko.warp.business.boundary.UserService&quot;,
+ * 		&quot;{ \&quot;findFirstUser\&quot;: { \&quot;id\&quot;: 2, \&quot;username\&quot;: \&quot;A mocked user instance\&quot; } }&quot;).send();
+ * </pre>
+ *
+ * Only facades which share their stubbing between all instances can be
+ * stubbed: singletons, stateless facades and facades with a stub table.
+ * Stateful facades are rejected by {@link #send()}.
+ *
+ * @author ckl
+ *
+ */
+public class StubControl {
+	private final URL endpoint;
+
+	/**
+	 * {@link StubDefinitions} by EJB class name; null resets the facade
+	 */
+	private final Map<String, Object> batch = new LinkedHashMap<String, Object>();
+
+	public StubControl(URL endpoint) {
+		this.endpoint = endpoint;
+	}
+
+	/**
+	 * Creates a client for the deployment with the given context URL
+	 *
+	 * @param deploymentUrl
+	 *            e.g. the URL injected by @ArquillianResource
+	 * @return
+	 * @throws IOException
+	 */
+	public static StubControl at(URL deploymentUrl) throws IOException {
+		String base = deploymentUrl.toString();
+
+		if (base.endsWith("/")) {
+			base = base.substring(0, base.length() - 1);
+		}
+
+		return new StubControl(new URL(base + StubControlServlet.PATH));
+	}
+
+	/**
+	 * Replaces the stubbing of the facade with the given definitions
+	 *
+	 * @param clazzName
+	 *            complete FQDN of the mocked EJB
+	 * @param json
+	 * @return
+	 */
+	public StubControl stub(String clazzName, String json) {
+		batch.put(clazzName, StubDefinitions.parse(json));
+		return this;
+	}
+
+	/**
+	 * Replaces the stubbing of the facade with the definitions of the given
+	 * UTF-8 encoded JSON file
+	 *
+	 * @param clazzName
+	 *            complete FQDN of the mocked EJB
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public StubControl stub(String clazzName, File file) throws IOException {
+		return stub(clazzName, EjbMocker.readStubDefinitions(file));
+	}
+
+	/**
+	 * Removes every stubbing of the facade; stub definitions compiled into the
+	 * facade are applied again
+	 *
+	 * @param clazzName
+	 *            complete FQDN of the mocked EJB
+	 * @return
+	 */
+	public StubControl reset(String clazzName) {
+		batch.put(clazzName, null);
+		return this;
+	}
+
+	/**
+	 * Sends all collected commands in one request and clears them
+	 *
+	 * @return number of changed facades
+	 * @throws IOException
+	 *             if the servlet has rejected the batch
+	 */
+	public int send() throws IOException {
+		byte[] body = Json.write(batch).getBytes("UTF-8");
+		HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+
+		try {
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(body.length);
+			connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+
+			OutputStream os = connection.getOutputStream();
+
+			try {
+				os.write(body);
+			} finally {
+				os.close();
+			}
+
+			int status = connection.getResponseCode();
+
+			if (status != HttpURLConnection.HTTP_OK) {
+				InputStream error = connection.getErrorStream();
+				String message = error == null ? "" : new String(EjbMockerCache.readFully(error), "UTF-8");
+
+				throw new IOException("Stub control " + endpoint + " failed with HTTP " + status + ": " + message);
+			}
+
+			String r = new String(EjbMockerCache.readFully(connection.getInputStream()), "UTF-8");
+			batch.clear();
+
+			return Integer.parseInt(r.trim());
+		} finally {
+			connection.disconnect();
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package de.schakko.warp.helper.test.integration;
+
+import org.jboss.shrinkwrap.api.Filters;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+
+import de.schakko.warp.helper.test.mock.ejb.EjbMockerUtil;
+
+/**
+ * One archive for a whole suite of integration tests. It consists of the
+ * customer baseline WAR, all controllers, the facades of all EJBs and the
+ * static web resources. Together with the {@link SuiteDeploymentExtension}
+ * the archive is deployed only once; every test class attaches to the running
+ * deployment and resets the embedded mocks instead of redeploying.
+ * 
+ * <pre>
+ * &#064;RunWith(Arquillian.class)
+ * &#064;WarpTest
+ * public class UserControllerIT {
+ * 	&#064;Deployment(testable = true)
+ * 	public static WebArchive createDeployment() throws Exception {
+ * 		// every test class of the suite must be listed, the first deployed
+ * 		// class wins
+ * 		return SuiteDeployment.getArchive(UserControllerIT.class, OtherControllerIT.class);
+ * 	}
+ * 
+ * 	&#064;EJB(mappedName = &quot;java:module/UserService&quot;)
+ * 	UserService userService;
+ * 
+ * 	&#064;Before
+ * 	public void resetMocks() throws Exception {
+ * 		SuiteDeployment.resetMocks(userService);
+ * 	}
+ * }
+ * </pre>
+ * 
+ * @author ckl
+ * 
+ */
+public class SuiteDeployment {
+	/**
+	 * Name of the shared archive; {@link SuiteDeploymentExtension} recognizes
+	 * the archive by this name
+	 */
+	public final static String ARCHIVE_NAME = "suite.war";
+
+	/**
+	 * Package of all controllers
+	 */
+	public final static String CONTROLLER_PACKAGE = "de.schakko.warp.presentation";
+
+	/**
+	 * Package of all EJBs which are replaced by facades
+	 */
+	public final static String EJB_PACKAGE = "de.schakko.warp.business";
+
+	private static WebArchive archive;
+
+	/**
+	 * Returns the shared archive. It is built by the first call and contains
+	 * the given test classes; all further calls return the same archive.
+	 * 
+	 * @param testClasses
+	 *            every test class of the suite; Arquillian only adds the test
+	 *            class of the first deployment
+	 * @return
+	 * @throws Exception
+	 */
+	public static synchronized WebArchive getArchive(Class<?>... testClasses) throws Exception {
+		if (archive == null) {
+			archive = createArchive(testClasses);
+		}
+
+		return archive;
+	}
+
+	protected static WebArchive createArchive(Class<?>... testClasses) throws Exception {
+		WebArchive r = ShrinkWrap.create(WebArchive.class, ARCHIVE_NAME).merge(
+				WarpUtil.createCustomerBaselineWARFromTemplate());
+
+		// controllers without test classes inside the same packages
+		r.addPackages(true, Filters.exclude(".*(IT|Test)(\\$.*)?\\.class"), CONTROLLER_PACKAGE);
+		r.addClasses(testClasses);
+		// resetMocks is called inside the container
+		r.addClass(SuiteDeployment.class);
+
+		WebArchiveUtil.addDiscoveredEjbFacades(r, EJB_PACKAGE);
+		WebArchiveUtil.addStaticWebResourceSnapshot(r);
+
+		return r;
+	}
+
+	/**
+	 * Resets the stubbings and recorded invocations of the given facades.
+	 * Call it before every test which uses the shared deployment.
+	 * 
+	 * @param enrichedEjbs
+	 * @throws Exception
+	 */
+	public static void resetMocks(Object... enrichedEjbs) throws Exception {
+		for (Object enrichedEjb : enrichedEjbs) {
+			EjbMockerUtil.reset(enrichedEjb);
+		}
+	}
+}
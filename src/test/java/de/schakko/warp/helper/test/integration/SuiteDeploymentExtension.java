@@ -0,0 +1,112 @@
+package de.schakko.warp.helper.test.integration;
+
+import java.util.logging.Logger;
+
+import org.jboss.arquillian.container.spi.Container;
+import org.jboss.arquillian.container.spi.client.deployment.Deployment;
+import org.jboss.arquillian.container.spi.client.deployment.DeploymentDescription;
+import org.jboss.arquillian.container.spi.client.protocol.metadata.ProtocolMetaData;
+import org.jboss.arquillian.container.spi.context.annotation.DeploymentScoped;
+import org.jboss.arquillian.container.spi.event.DeployDeployment;
+import org.jboss.arquillian.container.spi.event.UnDeployDeployment;
+import org.jboss.arquillian.core.api.Instance;
+import org.jboss.arquillian.core.api.InstanceProducer;
+import org.jboss.arquillian.core.api.annotation.Inject;
+import org.jboss.arquillian.core.api.annotation.Observes;
+import org.jboss.arquillian.core.spi.EventContext;
+import org.jboss.arquillian.core.spi.LoadableExtension;
+import org.jboss.arquillian.test.spi.event.suite.AfterSuite;
+
+/**
+ * Arquillian extension which deploys the {@link SuiteDeployment} only once.
+ * The first test class deploys the shared archive; every other test class
+ * attaches to it. The archive is undeployed after the whole suite instead of
+ * after each test class. Deployments with any other name are not touched.
+ * 
+ * The extension is registered by
+ * META-INF/services/org.jboss.arquillian.core.spi.LoadableExtension.
+ * 
+ * @author ckl
+ * 
+ */
+public class SuiteDeploymentExtension implements LoadableExtension {
+	public void register(ExtensionBuilder builder) {
+		builder.observer(SuiteDeployer.class);
+	}
+
+	/**
+	 * Intercepts the deploy and undeploy events of the shared archive
+	 */
+	public static class SuiteDeployer {
+		private static final Logger log = Logger.getLogger(SuiteDeployer.class.getName());
+
+		@Inject
+		@DeploymentScoped
+		private InstanceProducer<ProtocolMetaData> protocolMetaDataProducer;
+
+		@Inject
+		private Instance<ProtocolMetaData> protocolMetaData;
+
+		private Container container;
+
+		private Deployment deployment;
+
+		/**
+		 * Protocol meta data of the first deployment; handed to every test
+		 * class which attaches to the shared archive
+		 */
+		private ProtocolMetaData deployedProtocolMetaData;
+
+		public void deploy(@Observes EventContext<DeployDeployment> context) {
+			Deployment current = context.getEvent().getDeployment();
+
+			if (!isSuiteDeployment(current)) {
+				context.proceed();
+				return;
+			}
+
+			if (deployment == null) {
+				log.info("Deploying shared suite archive " + SuiteDeployment.ARCHIVE_NAME);
+				context.proceed();
+
+				container = context.getEvent().getContainer();
+				deployment = current;
+				deployedProtocolMetaData = protocolMetaData.get();
+				return;
+			}
+
+			log.fine("Attaching to already deployed suite archive " + SuiteDeployment.ARCHIVE_NAME);
+			current.deployed();
+			protocolMetaDataProducer.set(deployedProtocolMetaData);
+		}
+
+		public void undeploy(@Observes EventContext<UnDeployDeployment> context) {
+			if (!isSuiteDeployment(context.getEvent().getDeployment())) {
+				context.proceed();
+			}
+
+			// the shared archive stays deployed until the end of the suite
+		}
+
+		/**
+		 * Runs before the containers are stopped
+		 */
+		public void undeployAfterSuite(@Observes(precedence = 100) AfterSuite event) throws Exception {
+			if (deployment == null) {
+				return;
+			}
+
+			log.info("Undeploying shared suite archive " + SuiteDeployment.ARCHIVE_NAME);
+			DeploymentDescription description = deployment.getDescription();
+			container.getDeployableContainer().undeploy(
+					description.getTestableArchive() != null ? description.getTestableArchive() : description
+							.getArchive());
+			deployment = null;
+		}
+
+		private boolean isSuiteDeployment(Deployment deployment) {
+			return deployment.getDescription().isArchiveDeployment()
+					&& SuiteDeployment.ARCHIVE_NAME.equals(deployment.getDescription().getArchive().getName());
+		}
+	}
+}
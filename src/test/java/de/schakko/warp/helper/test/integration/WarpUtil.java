@@ -8,13 +8,21 @@ import org.jboss.arquillian.warp.impl.server.execution.WarpFilter;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.asset.EmptyAsset;
 import org.jboss.shrinkwrap.api.spec.WebArchive;
-import org.jboss.shrinkwrap.resolver.api.maven.Maven;
 import org.openqa.selenium.OutputType;
 import org.openqa.selenium.TakesScreenshot;
 import org.openqa.selenium.WebDriver;
 
 import de.schakko.warp.business.entity.User;
+import de.schakko.warp.helper.test.mock.ejb.CompletedFuture;
 import de.schakko.warp.helper.test.mock.ejb.EjbMockerUtil;
+import de.schakko.warp.helper.test.mock.ejb.InvocationHistory;
+import de.schakko.warp.helper.test.mock.ejb.Json;
+import de.schakko.warp.helper.test.mock.ejb.StubAnswer;
+import de.schakko.warp.helper.test.mock.ejb.StubBatch;
+import de.schakko.warp.helper.test.mock.ejb.StubControlServlet;
+import de.schakko.warp.helper.test.mock.ejb.StubDefinitions;
+import de.schakko.warp.helper.test.mock.ejb.StubTable;
+import de.schakko.warp.helper.test.mock.ejb.UnstubbedAnswer;
 
 /**
  * Utility class for integration testing with Arquillian, Warp, Drone, Graphene
@@ -24,6 +32,24 @@ import de.schakko.warp.helper.test.mock.ejb.EjbMockerUtil;
  * 
  */
 public class WarpUtil {
+	/**
+	 * Libraries of the baseline WAR; Mockito is needed for mocked EJBs
+	 */
+	public final static String[] BASELINE_LIBRARIES = { "org.mockito:mockito-all:jar:1.8.5" };
+
+	/**
+	 * Libraries of the customer baseline WAR
+	 */
+	public final static String[] CUSTOMER_BASELINE_LIBRARIES = { "org.mockito:mockito-all:jar:1.8.5",
+			"org.primefaces:primefaces:jar:3.5", "joda-time:joda-time:jar:2.2" };
+
+	/**
+	 * Immutable templates of the baseline WARs; they are never handed out
+	 */
+	private static WebArchive baselineTemplate;
+
+	private static WebArchive customerBaselineTemplate;
+
 	/**
 	 * Creates the baseline WAR which consists of Mockito, the
 	 * {@link EjbMockerUtil}. enabled CDI and JSF and a web.xml with JSF
@@ -32,10 +58,33 @@ public class WarpUtil {
 	 * @return
 	 */
 	public static WebArchive createBaselineWar() {
+		return createBaselineWar(BASELINE_LIBRARIES);
+	}
+
+	/**
+	 * Creates the baseline WAR with the given libraries. All libraries are
+	 * resolved at once by {@link MavenLibraries}.
+	 * 
+	 * @param libraries
+	 * @return
+	 */
+	protected static WebArchive createBaselineWar(String... libraries) {
 		WebArchive r = ShrinkWrap.create(WebArchive.class)
 		// Generic dependencies
 		// Utils for getting Mocks and Warp to work
 				.addClass(EjbMockerUtil.class)
+				// runtime of facades without embedded Mockito instance
+				.addClasses(StubTable.class, StubAnswer.class)
+				// caps the invocations recorded by embedded mocks
+				.addClass(InvocationHistory.class)
+				// returned by unstubbed asynchronous facade methods
+				.addClass(CompletedFuture.class)
+				// default answer of embedded mocks inside spy facades
+				.addClass(UnstubbedAnswer.class)
+				// applies the stub definitions compiled into facades
+				.addClasses(StubDefinitions.class, Json.class)
+				// stubs the facades without Warp inspection; mapped by web.xml
+				.addClasses(StubControlServlet.class, StubBatch.class)
 				// WarpFilter is needed by Warp
 				.addClass(WarpFilter.class)
 				// Enable CDI
@@ -44,9 +93,8 @@ public class WarpUtil {
 				.addAsWebInfResource(new File("src/main/webapp/WEB-INF/faces-config.xml"))
 				// cusomtized web.xml; we don't need tooglz or other influences
 				.addAsWebInfResource(new File("src/test/resources/integration/web.xml"))
-				// Mockito is needed for mocked EJBs
-				.addAsLibraries(
-						Maven.resolver().resolve("org.mockito:mockito-all:jar:1.8.5").withTransitivity().asFile());
+				// Mockito and project specific libraries in one resolver session
+				.addAsLibraries(MavenLibraries.resolve(libraries));
 
 		return r;
 	}
@@ -62,16 +110,55 @@ public class WarpUtil {
 	 * @return
 	 */
 	public static WebArchive createCustomerBaselineWAR() {
-		return createBaselineWar()
-				// project specific dependencies
-				.addAsLibraries(
-						Maven.resolver().resolve("org.primefaces:primefaces:jar:3.5").withTransitivity().asFile())
-				// good old JodaTime
-				.addAsLibraries(Maven.resolver().resolve("joda-time:joda-time:jar:2.2").withTransitivity().asFile())
+		// project specific dependencies: PrimeFaces and good old JodaTime
+		return createBaselineWar(CUSTOMER_BASELINE_LIBRARIES)
 				// enable access to the active client user
 				.addClass(User.class);
 	}
 
+	/**
+	 * Returns a new WAR with the content of {@link #createBaselineWar()}. The
+	 * baseline is built only once per JVM and kept as template; every call
+	 * returns an independent archive which can be overlaid with the classes,
+	 * facades and web resources of the test.
+	 * 
+	 * @return
+	 */
+	public static synchronized WebArchive createBaselineWarFromTemplate() {
+		if (baselineTemplate == null) {
+			baselineTemplate = createBaselineWar();
+		}
+
+		return overlay(baselineTemplate);
+	}
+
+	/**
+	 * Returns a new WAR with the content of
+	 * {@link #createCustomerBaselineWAR()}. The baseline is built only once
+	 * per JVM and kept as template.
+	 * 
+	 * @return
+	 */
+	public static synchronized WebArchive createCustomerBaselineWARFromTemplate() {
+		if (customerBaselineTemplate == null) {
+			customerBaselineTemplate = createCustomerBaselineWAR();
+		}
+
+		return overlay(customerBaselineTemplate);
+	}
+
+	/**
+	 * Creates a new archive which references all assets of the given
+	 * template. The assets themselves are shared and not copied, so the
+	 * library JARs are only read when the archive is exported.
+	 * 
+	 * @param template
+	 * @return
+	 */
+	protected static WebArchive overlay(WebArchive template) {
+		return ShrinkWrap.create(WebArchive.class).merge(template);
+	}
+
 	/**
 	 * Saves a screenshot of the current {@link WebDriver} instance
 	 * 
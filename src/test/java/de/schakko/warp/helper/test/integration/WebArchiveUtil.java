@@ -1,6 +1,9 @@
 package de.schakko.warp.helper.test.integration;
 
 import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 import org.jboss.shrinkwrap.api.Filters;
 import org.jboss.shrinkwrap.api.asset.ByteArrayAsset;
@@ -9,13 +12,18 @@ import org.jboss.shrinkwrap.api.importer.ExplodedImporter;
 import org.jboss.shrinkwrap.api.spec.WebArchive;
 
 import de.schakko.warp.helper.test.mock.ejb.EjbMocker.EjbMockerBuilder;
+import de.schakko.warp.helper.test.mock.ejb.EjbIndex;
+import de.schakko.warp.helper.test.mock.ejb.EjbMockerBatchBuilder;
+import de.schakko.warp.helper.test.mock.ejb.EjbMockerCache;
+import de.schakko.warp.helper.test.mock.ejb.StubDefinitions;
 
 public class WebArchiveUtil {
 	public final static String WEBAPP_SRC = "src/main/webapp";
 
 	/**
 	 * Adds the facade/mock combination of given EJB class name as
-	 * {@link ByteArrayAsset} to the web archive
+	 * {@link ByteArrayAsset} to the web archive. The facade is taken from the
+	 * {@link EjbMockerCache} if the EJB has not been changed.
 	 * 
 	 * @param archive
 	 * @param clazzName
@@ -25,13 +33,122 @@ public class WebArchiveUtil {
 	 * @throws Exception
 	 */
 	public static WebArchive addControllableEjbFacade(WebArchive archive, String clazzName) throws Exception {
-		archive.add(
-				new ByteArrayAsset(EjbMockerBuilder.create(clazzName).suppressExceptions(true)
-						.ignoreMethod("getRepository").stream()), "WEB-INF/classes/" + clazzName.replace('.', '/')
-						+ ".class");
+		return addClasses(archive, EjbMockerBuilder.create(clazzName).suppressExceptions(true)
+				.ignoreMethod("getRepository").streamWithNestedClasses());
+	}
+
+	/**
+	 * Adds the facade/mock combination of given EJB class name. The
+	 * {@link StubDefinitions} of the given JSON file are compiled into the
+	 * facade, so it serves their return values from the first request on.
+	 * 
+	 * @param archive
+	 * @param clazzName
+	 *            *don't* use YourClass.class.getName(); use the complete FQDN
+	 *            instead
+	 * @param stubDefinitions
+	 * @return
+	 * @throws Exception
+	 */
+	public static WebArchive addControllableEjbFacade(WebArchive archive, String clazzName, File stubDefinitions)
+			throws Exception {
+		return addClasses(archive, EjbMockerBuilder.create(clazzName).suppressExceptions(true)
+				.ignoreMethod("getRepository").stubDefinitions(stubDefinitions).streamWithNestedClasses());
+	}
+
+	/**
+	 * Adds the facade/mock combination created by the given builder. Facades
+	 * which keep original method bodies are added together with the nested
+	 * classes of the EJB.
+	 * 
+	 * @param archive
+	 * @param builder
+	 * @return
+	 * @throws Exception
+	 */
+	public static WebArchive addControllableEjbFacade(WebArchive archive, EjbMockerBuilder builder)
+			throws Exception {
+		return addClasses(archive, builder.streamWithNestedClasses());
+	}
+
+	/**
+	 * Adds the facade/mock combinations of all given EJB class names. All
+	 * facades are generated by one {@link EjbMockerBatchBuilder} which shares
+	 * its class pool between the EJBs.
+	 * 
+	 * @param archive
+	 * @param clazzNames
+	 *            *don't* use YourClass.class.getName(); use the complete FQDN
+	 *            instead
+	 * @return
+	 * @throws Exception
+	 */
+	public static WebArchive addControllableEjbFacades(WebArchive archive, Collection<String> clazzNames)
+			throws Exception {
+		return addClasses(archive, EjbMockerBatchBuilder.create(clazzNames).suppressExceptions(true)
+				.ignoreMethod("getRepository").stream());
+	}
+
+	/**
+	 * Adds the given bytecode as {@link ByteArrayAsset}s
+	 * 
+	 * @param archive
+	 * @param classes
+	 *            bytecode by class name
+	 * @return
+	 */
+	private static WebArchive addClasses(WebArchive archive, Map<String, byte[]> classes) {
+		for (Map.Entry<String, byte[]> clazz : classes.entrySet()) {
+			archive.add(new ByteArrayAsset(clazz.getValue()), toClassPath(clazz.getKey()));
+		}
+
 		return archive;
 	}
 
+	/**
+	 * Adds the facade/mock combinations of all EJBs inside the compiled
+	 * application classes. The EJBs are looked up in the {@link EjbIndex}
+	 * without loading them.
+	 * 
+	 * @param archive
+	 * @return
+	 * @throws Exception
+	 */
+	public static WebArchive addDiscoveredEjbFacades(WebArchive archive) throws Exception {
+		return addDiscoveredEjbFacades(archive, null);
+	}
+
+	/**
+	 * Adds the facade/mock combinations of all EJBs inside the given package
+	 * and its sub packages. The EJBs are looked up in the {@link EjbIndex}
+	 * without loading them.
+	 * 
+	 * @param archive
+	 * @param packageFilter
+	 *            e.g. "de.schakko.warp.business"; null adds every EJB
+	 * @return
+	 * @throws Exception
+	 */
+	public static WebArchive addDiscoveredEjbFacades(WebArchive archive, String packageFilter) throws Exception {
+		List<String> ejbs = EjbIndex.load().findEjbs(packageFilter);
+
+		if (ejbs.isEmpty()) {
+			return archive;
+		}
+
+		return addControllableEjbFacades(archive, ejbs);
+	}
+
+	/**
+	 * Returns the path of the given class inside the web archive
+	 * 
+	 * @param clazzName
+	 * @return
+	 */
+	public static String toClassPath(String clazzName) {
+		return "WEB-INF/classes/" + clazzName.replace('.', '/') + ".class";
+	}
+
 	/**
 	 * Adds all web resources which are *not* inside META-INF or WEB-INF
 	 * 
@@ -42,6 +159,23 @@ public class WebArchiveUtil {
 		archive.as(ExplodedImporter.class).importDirectory(WEBAPP_SRC, Filters.exclude(".*\\-INF"));
 	}
 
+	/**
+	 * Adds all web resources which are *not* inside META-INF or WEB-INF from
+	 * the {@link WebResourceSnapshot} of {@value #WEBAPP_SRC}. The files are
+	 * only referenced and not copied into memory; the directory is scanned
+	 * once per JVM.
+	 * 
+	 * @param archive
+	 * @return the used snapshot
+	 * @throws Exception
+	 */
+	public static WebResourceSnapshot addStaticWebResourceSnapshot(WebArchive archive) throws Exception {
+		WebResourceSnapshot r = WebResourceSnapshot.of(new File(WEBAPP_SRC));
+		r.addTo(archive);
+
+		return r;
+	}
+
 	/**
 	 * Saves the content of given WAR to local directory
 	 * 
@@ -52,4 +186,18 @@ public class WebArchiveUtil {
 		war.as(ExplodedExporter.class).exportExploded(targetDirectory);
 	}
 
+	/**
+	 * Saves the content of given WAR to local directory. Only entries which
+	 * have been changed since the last export are written; file based entries
+	 * are hard linked. See {@link IncrementalExplodedExporter}.
+	 * 
+	 * @param war
+	 * @param targetDirectory
+	 * @return the exploded archive
+	 * @throws Exception
+	 */
+	public static File saveWarContentIncrementally(WebArchive war, File targetDirectory) throws Exception {
+		return new IncrementalExplodedExporter().export(war, targetDirectory);
+	}
+
 }
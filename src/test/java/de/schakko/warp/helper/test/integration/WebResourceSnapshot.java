@@ -0,0 +1,248 @@
+package de.schakko.warp.helper.test.integration;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import org.jboss.shrinkwrap.api.asset.FileAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+
+/**
+ * Snapshot of the static web resources inside a directory. The snapshot
+ * contains the paths and content hashes of the files; the files are added as
+ * {@link FileAsset} and are not read before the archive is exported.
+ * 
+ * Every {@link #of(File)} scans the directory again, so added and deleted
+ * files reach the next deployment. The content hash of every file is
+ * persisted in a manifest per directory inside
+ * {@value #DEFAULT_MANIFEST_DIRECTORY}; only files whose size or modification
+ * time have been changed since the last scan, even of an earlier run, are
+ * hashed again. If no path and no content hash has been changed, the
+ * previous snapshot is returned.
+ * 
+ * @author ckl
+ * 
+ */
+public class WebResourceSnapshot {
+	private static final Logger log = Logger.getLogger(WebResourceSnapshot.class.getName());
+
+	public final static String DEFAULT_MANIFEST_DIRECTORY = "target/webapp-snapshots";
+
+	/**
+	 * Directories ending with this suffix (META-INF, WEB-INF) are excluded
+	 */
+	public final static String EXCLUDED_DIRECTORY_SUFFIX = "-INF";
+
+	private final static Map<File, WebResourceSnapshot> snapshots = new HashMap<File, WebResourceSnapshot>();
+
+	private final File directory;
+
+	/**
+	 * Files by archive path, e.g. "/index.xhtml"
+	 */
+	private final Map<String, File> files = new TreeMap<String, File>();
+
+	/**
+	 * Content hash by archive path
+	 */
+	private final Map<String, String> hashes = new TreeMap<String, String>();
+
+	protected WebResourceSnapshot(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the current snapshot of the given directory
+	 * 
+	 * @param directory
+	 * @return the previous snapshot if the content has not been changed
+	 * @throws Exception
+	 */
+	public static WebResourceSnapshot of(File directory) throws Exception {
+		return of(directory, new File(DEFAULT_MANIFEST_DIRECTORY));
+	}
+
+	/**
+	 * Returns the current snapshot of the given directory
+	 * 
+	 * @param directory
+	 * @param manifestDirectory
+	 *            directory of the manifests
+	 * @return the previous snapshot if the content has not been changed
+	 * @throws Exception
+	 */
+	protected static synchronized WebResourceSnapshot of(File directory, File manifestDirectory) throws Exception {
+		File key = directory.getAbsoluteFile();
+		WebResourceSnapshot r = new WebResourceSnapshot(key);
+		r.take(manifestFile(manifestDirectory, key));
+
+		WebResourceSnapshot previous = snapshots.get(key);
+
+		if (previous != null && previous.hashes.equals(r.hashes)) {
+			log.fine("Content of " + directory + " has not been changed; reusing snapshot");
+			return previous;
+		}
+
+		snapshots.put(key, r);
+
+		return r;
+	}
+
+	/**
+	 * Adds every file of the snapshot as {@link FileAsset}
+	 * 
+	 * @param archive
+	 */
+	public void addTo(WebArchive archive) {
+		for (Map.Entry<String, File> entry : files.entrySet()) {
+			archive.add(new FileAsset(entry.getValue()), entry.getKey());
+		}
+	}
+
+	/**
+	 * @return number of files inside the snapshot
+	 */
+	public int size() {
+		return files.size();
+	}
+
+	/**
+	 * Returns the manifest of the given directory; every directory has its
+	 * own manifest, so the archive paths of different directories never
+	 * collide
+	 * 
+	 * @param manifestDirectory
+	 * @param directory
+	 * @return e.g. target/webapp-snapshots/webapp-1a2b3c4d.properties
+	 * @throws Exception
+	 */
+	protected static File manifestFile(File manifestDirectory, File directory) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-1");
+		String id = toHex(digest.digest(directory.getAbsolutePath().getBytes("UTF-8"))).substring(0, 8);
+
+		return new File(manifestDirectory, directory.getName() + "-" + id + ".properties");
+	}
+
+	protected void take(File manifestFile) throws Exception {
+		Properties manifest = readManifest(manifestFile);
+		Properties updated = new Properties();
+
+		scan(directory, "/", manifest, updated);
+		log.info("Snapshot of " + directory + " contains " + files.size() + " files");
+
+		if (!updated.equals(manifest)) {
+			writeManifest(manifestFile, updated);
+		}
+	}
+
+	private void scan(File current, String prefix, Properties manifest, Properties updated) throws Exception {
+		File[] children = current.listFiles();
+
+		if (children == null) {
+			return;
+		}
+
+		for (File child : children) {
+			String path = prefix + child.getName();
+
+			if (child.isDirectory()) {
+				if (!child.getName().endsWith(EXCLUDED_DIRECTORY_SUFFIX)) {
+					scan(child, path + "/", manifest, updated);
+				}
+
+				continue;
+			}
+
+			String stamp = child.length() + ":" + child.lastModified() + ":";
+			String known = manifest.getProperty(path);
+			String hash;
+
+			if (known != null && known.startsWith(stamp)) {
+				hash = known.substring(stamp.length());
+			} else {
+				hash = hash(child);
+			}
+
+			files.put(path, child);
+			hashes.put(path, hash);
+			updated.setProperty(path, stamp + hash);
+		}
+	}
+
+	/**
+	 * Streams the file through the digest; it is never completely in memory
+	 */
+	private static String hash(File file) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-1");
+		InputStream is = new FileInputStream(file);
+
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+
+			while ((read = is.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		} finally {
+			is.close();
+		}
+
+		return toHex(digest.digest());
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+
+		return sb.toString();
+	}
+
+	private Properties readManifest(File manifestFile) {
+		Properties r = new Properties();
+
+		if (!manifestFile.isFile()) {
+			return r;
+		}
+
+		try {
+			InputStream is = new FileInputStream(manifestFile);
+
+			try {
+				r.load(is);
+			} finally {
+				is.close();
+			}
+		} catch (Exception e) {
+			log.warning("Unable to read " + manifestFile + ": " + e.getMessage());
+		}
+
+		return r;
+	}
+
+	private void writeManifest(File manifestFile, Properties manifest) {
+		try {
+			manifestFile.getAbsoluteFile().getParentFile().mkdirs();
+			OutputStream os = new FileOutputStream(manifestFile);
+
+			try {
+				manifest.store(os, "Content hashes of " + directory);
+			} finally {
+				os.close();
+			}
+		} catch (Exception e) {
+			log.warning("Unable to write " + manifestFile + ": " + e.getMessage());
+		}
+	}
+}
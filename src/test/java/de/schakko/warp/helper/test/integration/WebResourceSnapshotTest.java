@@ -0,0 +1,123 @@
+package de.schakko.warp.helper.test.integration;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the scan and the manifest of {@link WebResourceSnapshot}
+ * 
+ * @author ckl
+ * 
+ */
+public class WebResourceSnapshotTest {
+	private final static String MANIFEST = "manifest.properties";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void inf_directories_are_excluded() throws Exception {
+		File webapp = folder.newFolder("webapp");
+		write(new File(webapp, "index.xhtml"), "index");
+		write(new File(webapp, "css/style.css"), "style");
+		write(new File(webapp, "WEB-INF/web.xml"), "web");
+
+		WebResourceSnapshot snapshot = take(webapp);
+
+		assertEquals(2, snapshot.size());
+	}
+
+	@Test
+	public void changed_files_are_hashed_again() throws Exception {
+		File webapp = folder.newFolder("webapp");
+		File index = new File(webapp, "index.xhtml");
+		write(index, "index");
+
+		take(webapp);
+		String first = readManifest().getProperty("/index.xhtml");
+		take(webapp);
+		assertEquals(first, readManifest().getProperty("/index.xhtml"));
+
+		write(index, "changed index");
+		take(webapp);
+		// the manifest must not hide the change although the file may have
+		// the same modification time
+		assertFalse(first.equals(readManifest().getProperty("/index.xhtml")));
+	}
+
+	@Test
+	public void every_directory_has_its_own_manifest() throws Exception {
+		File manifests = folder.newFolder("manifests");
+		File first = new File(folder.newFolder("first"), "webapp");
+		File second = new File(folder.newFolder("second"), "webapp");
+
+		assertEquals(WebResourceSnapshot.manifestFile(manifests, first), WebResourceSnapshot.manifestFile(
+				manifests, first));
+		assertFalse(WebResourceSnapshot.manifestFile(manifests, first).equals(
+				WebResourceSnapshot.manifestFile(manifests, second)));
+	}
+
+	@Test
+	public void snapshot_is_reused_until_content_changes() throws Exception {
+		File webapp = folder.newFolder("webapp");
+		File manifests = folder.newFolder("manifests");
+		File index = new File(webapp, "index.xhtml");
+		write(index, "index");
+
+		WebResourceSnapshot first = WebResourceSnapshot.of(webapp, manifests);
+		assertSame(first, WebResourceSnapshot.of(webapp, manifests));
+
+		// a new modification time alone does not change the content hash
+		index.setLastModified(index.lastModified() - 10000);
+		assertSame(first, WebResourceSnapshot.of(webapp, manifests));
+
+		write(new File(webapp, "added.xhtml"), "added");
+		WebResourceSnapshot added = WebResourceSnapshot.of(webapp, manifests);
+		assertNotSame(first, added);
+		assertEquals(2, added.size());
+
+		new File(webapp, "added.xhtml").delete();
+		assertEquals(1, WebResourceSnapshot.of(webapp, manifests).size());
+	}
+
+	private WebResourceSnapshot take(File webapp) throws Exception {
+		WebResourceSnapshot r = new WebResourceSnapshot(webapp);
+		r.take(new File(folder.getRoot(), MANIFEST));
+
+		return r;
+	}
+
+	private Properties readManifest() throws Exception {
+		Properties r = new Properties();
+		InputStream is = new FileInputStream(new File(folder.getRoot(), MANIFEST));
+
+		try {
+			r.load(is);
+		} finally {
+			is.close();
+		}
+
+		return r;
+	}
+
+	private void write(File file, String content) throws Exception {
+		file.getParentFile().mkdirs();
+		OutputStream os = new FileOutputStream(file);
+
+		try {
+			os.write(content.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+	}
+}
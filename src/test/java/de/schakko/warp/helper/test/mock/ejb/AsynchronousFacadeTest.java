@@ -0,0 +1,74 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.MethodInfo;
+
+import org.junit.Test;
+
+import de.schakko.warp.business.entity.User;
+
+/**
+ * Facades of EJBs with javax.ejb.Asynchronous methods
+ * 
+ * @author ckl
+ * 
+ */
+public class AsynchronousFacadeTest {
+	private final static String SOURCE_CLAZZ = "de.schakko.warp.business.boundary.UserService";
+
+	@Test
+	public void asynchronous_annotation_is_copied() throws Exception {
+		byte[] bytecode = EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).suppressExceptions(true).useCache(false)
+				.stream();
+		ClassFile cf = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytecode)));
+
+		assertTrue(isAsynchronous(cf.getMethod("findUsersAsync")));
+		assertFalse(isAsynchronous(cf.getMethod("findUsers")));
+	}
+
+	@Test
+	public void unstubbed_futures_are_completed() throws Exception {
+		for (boolean useStubTable : new boolean[] { false, true }) {
+			Object facade = createFacade(useStubTable);
+			Future<?> result = (Future<?>) facade.getClass().getMethod("findUsersAsync").invoke(facade);
+
+			assertNotNull(result);
+			assertTrue(result.isDone());
+			assertNull(result.get());
+		}
+	}
+
+	@Test
+	public void stubbed_futures_are_returned() throws Exception {
+		Object facade = createFacade(true);
+		Method findUsersAsync = facade.getClass().getMethod("findUsersAsync");
+
+		List<User> users = new ArrayList<User>();
+		Future<List<User>> expected = new CompletedFuture<List<User>>(users);
+		EjbMockerUtil.getStubTable(facade).when("findUsersAsync").thenReturn(expected);
+
+		assertSame(expected, findUsersAsync.invoke(facade));
+	}
+
+	private Object createFacade(boolean useStubTable) throws Exception {
+		byte[] bytecode = EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).suppressExceptions(true)
+				.useStubTable(useStubTable).useCache(false).stream();
+		return FacadeClassLoader.newFacade(SOURCE_CLAZZ, bytecode);
+	}
+
+	private boolean isAsynchronous(MethodInfo method) {
+		AnnotationsAttribute attribute = (AnnotationsAttribute) method.getAttribute(AnnotationsAttribute.visibleTag);
+
+		return attribute != null && attribute.getAnnotation(EjbMocker.ASYNCHRONOUS_ANNOTATION) != null;
+	}
+}
@@ -0,0 +1,124 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+
+/**
+ * {@link ClassPool} which can be shared by multiple {@link EjbMocker}
+ * instances. The pool keeps track of every cached {@link CtClass} and its peak
+ * size. After a facade has been emitted, {@link #prune()} removes all cached
+ * classes if the pool has grown beyond its limit, so generating hundreds of
+ * facades does not exhaust the heap.
+ *
+ * @author ckl
+ *
+ */
+public class BoundedClassPool extends ClassPool {
+	private static final Logger log = Logger.getLogger(BoundedClassPool.class.getName());
+
+	/**
+	 * Default number of cached classes before the pool is cleared
+	 */
+	public final static int DEFAULT_MAX_SIZE = 500;
+
+	private final int maxSize;
+
+	private final Set<String> cachedClassNames = new LinkedHashSet<String>();
+
+	private int peakSize = 0;
+
+	/**
+	 * Creates a new pool with the system class path and
+	 * {@value #DEFAULT_MAX_SIZE} as limit
+	 */
+	public BoundedClassPool() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Creates a new pool with the system class path
+	 *
+	 * @param maxSize
+	 *            number of cached classes before {@link #prune()} clears the
+	 *            pool
+	 */
+	public BoundedClassPool(int maxSize) {
+		super(null);
+		this.maxSize = maxSize;
+		appendSystemPath();
+	}
+
+	@Override
+	protected synchronized void cacheCtClass(String classname, CtClass c, boolean dynamic) {
+		super.cacheCtClass(classname, c, dynamic);
+
+		// cachedClassNames is null if we are called by the super constructor
+		if (cachedClassNames != null && cachedClassNames.add(classname)) {
+			peakSize = Math.max(peakSize, cachedClassNames.size());
+		}
+	}
+
+	@Override
+	protected synchronized CtClass removeCached(String classname) {
+		cachedClassNames.remove(classname);
+		return super.removeCached(classname);
+	}
+
+	/**
+	 * Detaches the given class and removes all other cached classes if the
+	 * pool has exceeded its limit
+	 *
+	 * @param emitted
+	 *            class whose bytecode has been already written
+	 */
+	public synchronized void release(CtClass emitted) {
+		emitted.detach();
+		prune();
+	}
+
+	/**
+	 * Removes every cached class if the pool contains more than the allowed
+	 * number of classes
+	 *
+	 * @return true if the pool has been cleared
+	 */
+	public synchronized boolean prune() {
+		if (cachedClassNames.size() <= maxSize) {
+			return false;
+		}
+
+		log.fine("Clearing class pool with " + cachedClassNames.size() + " cached classes");
+
+		for (String classname : new LinkedHashSet<String>(cachedClassNames)) {
+			removeCached(classname);
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return number of currently cached classes
+	 */
+	public synchronized int getSize() {
+		return cachedClassNames.size();
+	}
+
+	/**
+	 * @return the maximum number of cached classes since the creation of this
+	 *         pool
+	 */
+	public synchronized int getPeakSize() {
+		return peakSize;
+	}
+
+	/**
+	 * @return the number of cached classes before the pool is cleared
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+}
@@ -0,0 +1,47 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Already completed {@link Future}. Facade methods returning a Future return
+ * it if neither the embedded mock nor the stub table provide a result, so the
+ * caller never gets null instead of a Future. It works like
+ * javax.ejb.AsyncResult but does not need the Java EE API at runtime.
+ * 
+ * @author ckl
+ * 
+ * @param <V>
+ */
+public class CompletedFuture<V> implements Future<V> {
+	private final V value;
+
+	public CompletedFuture(V value) {
+		this.value = value;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public boolean isDone() {
+		return true;
+	}
+
+	@Override
+	public V get() {
+		return value;
+	}
+
+	@Override
+	public V get(long timeout, TimeUnit unit) {
+		return value;
+	}
+}
@@ -0,0 +1,319 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.ClassFile;
+
+/**
+ * Index of all EJBs (javax.ejb.Stateless, javax.ejb.Stateful and
+ * javax.ejb.Singleton) inside a directory of compiled classes. The class files
+ * are only parsed and never loaded, so the found EJBs can still be mocked by
+ * {@link EjbMocker}.
+ *
+ * The index is persisted as properties file. On the next run only class files
+ * whose size or modification time have been changed are parsed again.
+ *
+ * @author ckl
+ *
+ */
+public class EjbIndex {
+	private static final Logger log = Logger.getLogger(EjbIndex.class.getName());
+
+	/**
+	 * Default directory of the compiled application classes
+	 */
+	public final static String DEFAULT_CLASSES_DIRECTORY = "target/classes";
+
+	/**
+	 * Default location of the persisted index
+	 */
+	public final static String DEFAULT_INDEX_FILE = "target/ejb-index.properties";
+
+	/**
+	 * EJB annotations to look for
+	 */
+	public final static String[] EJB_ANNOTATIONS = { "javax.ejb.Stateless", "javax.ejb.Stateful",
+			"javax.ejb.Singleton" };
+
+	private final static String CLASS_SUFFIX = ".class";
+
+	private final File classesDirectory;
+
+	private final File indexFile;
+
+	/**
+	 * Entries by path relative to the classes directory
+	 */
+	private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+
+	private boolean dirty = false;
+
+	/**
+	 * Single indexed class file
+	 */
+	static class Entry {
+		long lastModified;
+
+		long length;
+
+		/**
+		 * Class name or null if the class file is no EJB
+		 */
+		String ejbClazz;
+
+		Entry(long lastModified, long length, String ejbClazz) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.ejbClazz = ejbClazz;
+		}
+
+		boolean isUpToDate(File file) {
+			return file.lastModified() == lastModified && file.length() == length;
+		}
+
+		String format() {
+			return lastModified + ":" + length + ":" + (ejbClazz == null ? "" : ejbClazz);
+		}
+
+		static Entry parse(String value) {
+			String[] parts = value.split(":", 3);
+
+			if (parts.length != 3) {
+				return null;
+			}
+
+			return new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2].isEmpty() ? null
+					: parts[2]);
+		}
+	}
+
+	public EjbIndex(File classesDirectory, File indexFile) {
+		this.classesDirectory = classesDirectory;
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Loads the index of {@value #DEFAULT_CLASSES_DIRECTORY} from
+	 * {@value #DEFAULT_INDEX_FILE} and updates it
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public static EjbIndex load() throws IOException {
+		return load(new File(DEFAULT_CLASSES_DIRECTORY), new File(DEFAULT_INDEX_FILE));
+	}
+
+	/**
+	 * Loads the persisted index, rescans all changed class files and stores
+	 * the index if anything has been changed
+	 *
+	 * @param classesDirectory
+	 * @param indexFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static EjbIndex load(File classesDirectory, File indexFile) throws IOException {
+		EjbIndex r = new EjbIndex(classesDirectory, indexFile);
+		r.read();
+		r.update();
+
+		if (r.dirty) {
+			r.write();
+		}
+
+		return r;
+	}
+
+	/**
+	 * Returns the names of all indexed EJBs
+	 *
+	 * @return sorted class names
+	 */
+	public List<String> findEjbs() {
+		return findEjbs(null);
+	}
+
+	/**
+	 * Returns the names of all indexed EJBs inside the given package or its
+	 * sub packages
+	 *
+	 * @param packageFilter
+	 *            e.g. "de.schakko.warp.business"; null matches every EJB
+	 * @return sorted class names
+	 */
+	public List<String> findEjbs(String packageFilter) {
+		List<String> r = new ArrayList<String>();
+
+		for (Entry entry : entries.values()) {
+			if (entry.ejbClazz == null) {
+				continue;
+			}
+
+			if (packageFilter == null || entry.ejbClazz.startsWith(packageFilter + ".")) {
+				r.add(entry.ejbClazz);
+			}
+		}
+
+		Collections.sort(r);
+
+		return r;
+	}
+
+	/**
+	 * Reads the persisted index; an unreadable index is ignored and rebuilt
+	 */
+	protected void read() {
+		if (!indexFile.isFile()) {
+			dirty = true;
+			return;
+		}
+
+		Properties properties = new Properties();
+
+		try {
+			InputStream is = new FileInputStream(indexFile);
+
+			try {
+				properties.load(is);
+			} finally {
+				is.close();
+			}
+
+			for (String path : properties.stringPropertyNames()) {
+				Entry entry = Entry.parse(properties.getProperty(path));
+
+				if (entry != null) {
+					entries.put(path, entry);
+				}
+			}
+		} catch (Exception e) {
+			log.warning("Unable to read EJB index " + indexFile + ", rebuilding it: " + e.getMessage());
+			entries.clear();
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Parses all new or changed class files and removes deleted ones
+	 *
+	 * @throws IOException
+	 */
+	protected void update() throws IOException {
+		Set<String> found = new HashSet<String>();
+		scan(classesDirectory, "", found);
+
+		if (entries.keySet().retainAll(found)) {
+			dirty = true;
+		}
+	}
+
+	private void scan(File directory, String prefix, Set<String> found) throws IOException {
+		File[] files = directory.listFiles();
+
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			String path = prefix + file.getName();
+
+			if (file.isDirectory()) {
+				scan(file, path + "/", found);
+				continue;
+			}
+
+			if (!path.endsWith(CLASS_SUFFIX)) {
+				continue;
+			}
+
+			found.add(path);
+			Entry entry = entries.get(path);
+
+			if (entry != null && entry.isUpToDate(file)) {
+				continue;
+			}
+
+			log.fine("Indexing " + path);
+			entries.put(path, new Entry(file.lastModified(), file.length(), readEjbClazz(file)));
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Parses the given class file without loading it
+	 *
+	 * @param classFile
+	 * @return the class name if the class is annotated as EJB, otherwise null
+	 * @throws IOException
+	 */
+	protected String readEjbClazz(File classFile) throws IOException {
+		DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(classFile)));
+		ClassFile cf;
+
+		try {
+			cf = new ClassFile(is);
+		} finally {
+			is.close();
+		}
+
+		AnnotationsAttribute annotations = (AnnotationsAttribute) cf.getAttribute(AnnotationsAttribute.visibleTag);
+
+		if (annotations == null) {
+			return null;
+		}
+
+		for (String annotation : EJB_ANNOTATIONS) {
+			if (annotations.getAnnotation(annotation) != null) {
+				return cf.getName();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Persists the index
+	 *
+	 * @throws IOException
+	 */
+	protected void write() throws IOException {
+		Properties properties = new Properties();
+
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			properties.setProperty(entry.getKey(), entry.getValue().format());
+		}
+
+		File parent = indexFile.getAbsoluteFile().getParentFile();
+
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+			throw new IOException("Unable to create directory " + parent);
+		}
+
+		OutputStream os = new FileOutputStream(indexFile);
+
+		try {
+			properties.store(os, "EJB index of " + classesDirectory.getAbsolutePath());
+		} finally {
+			os.close();
+		}
+
+		dirty = false;
+	}
+}
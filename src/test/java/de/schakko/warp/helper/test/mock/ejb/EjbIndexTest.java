@@ -0,0 +1,134 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.annotation.Annotation;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that {@link EjbIndex} follows changes of the classes directory
+ * 
+ * @author ckl
+ * 
+ */
+public class EjbIndexTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File classes;
+
+	private File index;
+
+	@Before
+	public void setUp() throws Exception {
+		classes = folder.newFolder("classes");
+		index = new File(folder.getRoot(), "ejb-index.properties");
+	}
+
+	@Test
+	public void ejbs_are_found_by_package() throws Exception {
+		writeClazz("de.example.boundary.OrderService", "javax.ejb.Stateless");
+		writeClazz("de.example.boundary.sub.CartService", "javax.ejb.Stateful");
+		writeClazz("de.example.control.Registry", "javax.ejb.Singleton");
+		writeClazz("de.example.entity.Order", null);
+		writeClazz("de.example.boundaryless.Service", "javax.ejb.Stateless");
+
+		EjbIndex ejbIndex = EjbIndex.load(classes, index);
+
+		assertTrue(index.isFile());
+		assertEquals(Arrays.asList("de.example.boundary.OrderService", "de.example.boundary.sub.CartService",
+				"de.example.boundaryless.Service", "de.example.control.Registry"), ejbIndex.findEjbs());
+		assertEquals(Arrays.asList("de.example.boundary.OrderService", "de.example.boundary.sub.CartService"),
+				ejbIndex.findEjbs("de.example.boundary"));
+		assertEquals(Arrays.asList("de.example.control.Registry"), ejbIndex.findEjbs("de.example.control"));
+		assertTrue(ejbIndex.findEjbs("de.example.entity").isEmpty());
+	}
+
+	@Test
+	public void modified_clazzes_are_indexed_again() throws Exception {
+		File clazz = writeClazz("de.example.boundary.OrderService", "javax.ejb.Stateless");
+		assertEquals(Arrays.asList("de.example.boundary.OrderService"), EjbIndex.load(classes, index).findEjbs());
+
+		long lastModified = clazz.lastModified();
+		writeClazz("de.example.boundary.OrderService", null);
+		clazz.setLastModified(lastModified + 2000);
+
+		assertTrue(EjbIndex.load(classes, index).findEjbs().isEmpty());
+
+		writeClazz("de.example.boundary.OrderService", "javax.ejb.Singleton");
+		clazz.setLastModified(lastModified + 4000);
+
+		assertEquals(Arrays.asList("de.example.boundary.OrderService"), EjbIndex.load(classes, index).findEjbs());
+	}
+
+	@Test
+	public void removed_clazzes_are_dropped_from_the_persisted_index() throws Exception {
+		writeClazz("de.example.boundary.OrderService", "javax.ejb.Stateless");
+		File removed = writeClazz("de.example.boundary.CartService", "javax.ejb.Stateful");
+		assertEquals(2, EjbIndex.load(classes, index).findEjbs().size());
+
+		assertTrue(removed.delete());
+
+		assertEquals(Arrays.asList("de.example.boundary.OrderService"), EjbIndex.load(classes, index).findEjbs());
+		assertEquals(Arrays.asList("de.example.boundary.OrderService"), EjbIndex.load(classes, index).findEjbs());
+	}
+
+	@Test
+	public void unreadable_index_is_rebuilt() throws Exception {
+		writeClazz("de.example.boundary.OrderService", "javax.ejb.Stateless");
+
+		FileOutputStream os = new FileOutputStream(index);
+
+		try {
+			os.write("de/example/boundary/OrderService.class=garbage\n".getBytes("ISO-8859-1"));
+		} finally {
+			os.close();
+		}
+
+		assertEquals(Arrays.asList("de.example.boundary.OrderService"), EjbIndex.load(classes, index).findEjbs());
+	}
+
+	/**
+	 * Writes an empty class file, optionally annotated with the given EJB
+	 * annotation
+	 * 
+	 * @param clazzName
+	 * @param annotation
+	 *            may be null
+	 * @return
+	 * @throws Exception
+	 */
+	private File writeClazz(String clazzName, String annotation) throws Exception {
+		ClassFile cf = new ClassFile(false, clazzName, null);
+
+		if (annotation != null) {
+			AnnotationsAttribute attribute = new AnnotationsAttribute(cf.getConstPool(),
+					AnnotationsAttribute.visibleTag);
+			attribute.addAnnotation(new Annotation(annotation, cf.getConstPool()));
+			cf.addAttribute(attribute);
+		}
+
+		File file = new File(classes, clazzName.replace('.', '/') + ".class");
+		file.getParentFile().mkdirs();
+		DataOutputStream os = new DataOutputStream(new FileOutputStream(file));
+
+		try {
+			cf.write(os);
+		} finally {
+			os.close();
+		}
+
+		return file;
+	}
+}
@@ -1,7 +1,20 @@
 package de.schakko.warp.helper.test.mock.ejb;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import javassist.ClassPool;
@@ -12,9 +25,17 @@ import javassist.CtMethod;
 import javassist.CtNewConstructor;
 import javassist.CtNewMethod;
 import javassist.Modifier;
+import javassist.NotFoundException;
+import javassist.bytecode.AccessFlag;
 import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.AttributeInfo;
 import javassist.bytecode.ClassFile;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.InnerClassesAttribute;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.SignatureAttribute;
 import javassist.bytecode.annotation.Annotation;
+import javassist.bytecode.annotation.EnumMemberValue;
 
 /**
  * For testing EJBs with Arquillian, {@link EjbMocker} creates a new class type
@@ -80,22 +101,105 @@ import javassist.bytecode.annotation.Annotation;
 public class EjbMocker {
 	private static final Logger log = Logger.getLogger(EjbMocker.class.getName());
 
+	/**
+	 * Version of the generated facade layout. Increment it whenever the code
+	 * generation changes, so cached facades of older versions are not used
+	 * anymore.
+	 */
+	public final static int FACADE_FORMAT_VERSION = 8;
+
+	/**
+	 * EJB annotation of asynchronous methods; it is copied from the source
+	 * EJB to the facade
+	 */
+	public final static String ASYNCHRONOUS_ANNOTATION = "javax.ejb.Asynchronous";
+
+	/**
+	 * Return type of asynchronous methods
+	 */
+	public final static String FUTURE_TYPE = "java.util.concurrent.Future";
+
+	/**
+	 * Prefix of the private copies of the original methods inside spy
+	 * facades
+	 */
+	public final static String REAL_METHOD_PREFIX = "__real__";
+
+	/**
+	 * Maximum length of the compiled stub definitions; they are stored as a
+	 * single string constant inside the facade
+	 */
+	public final static int MAX_STUB_DEFINITIONS_LENGTH = 65535;
+
+	/**
+	 * Instance fields which are no facade options; every other instance field
+	 * is part of the {@link #describeOptions()} and copied by
+	 * {@link #copyOptionsTo(EjbMocker)}
+	 */
+	final static List<String> NON_OPTION_FIELDS = Arrays.asList("sourceClazz", "cp", "cache");
+
 	/**
 	 * Exclude exceptions from source EJB methods
 	 */
 	private boolean suppressExceptions = false;
 
 	/**
-	 * Use javax.ejb.Singleton and javax.ejb.Startup instead of
-	 * javax.ejb.Stateful
+	 * EJB type of the facade; javax.ejb.Singleton and javax.ejb.Startup by
+	 * default
 	 */
-	private boolean useSingletonInsteadOfStateful = true;
+	private FacadeType facadeType = FacadeType.SINGLETON;
 
 	/**
 	 * Methods with given name will not be copied from source EJB
 	 */
 	private List<String> ignoreMethods = new ArrayList<String>();
 
+	/**
+	 * Create the embedded mock inside the constructor of the facade instead of
+	 * the first call of {@value EjbMockerUtil#MOCK_ACCESSOR}(). The mock field
+	 * is final so the mock is safely published to every thread and
+	 * delegating methods read the field directly.
+	 */
+	private boolean eagerMockInitialization = false;
+
+	/**
+	 * Concurrency of the javax.ejb.Singleton facade
+	 */
+	private FacadeConcurrency concurrency = FacadeConcurrency.CONTAINER_WRITE;
+
+	/**
+	 * Methods with given name will be annotated with javax.ejb.Lock(READ)
+	 */
+	private List<String> readLockMethods = new ArrayList<String>();
+
+	/**
+	 * Delegate to a {@link StubTable} instead of an embedded Mockito instance
+	 */
+	private boolean useStubTable = false;
+
+	/**
+	 * Maximum number of invocations recorded by the embedded Mockito
+	 * instance; 0 records every invocation
+	 */
+	private int invocationHistoryLimit = 0;
+
+	/**
+	 * Methods with given name keep their original body and are neither
+	 * mocked nor stubbed
+	 */
+	private List<String> keptMethods = new ArrayList<String>();
+
+	/**
+	 * Mocked methods call their original body if they have not been stubbed
+	 */
+	private boolean callRealMethodsWhenUnstubbed = false;
+
+	/**
+	 * Compact JSON of the {@link StubDefinitions} which are compiled into the
+	 * facade; null if there are none
+	 */
+	private String stubDefinitions;
+
 	/**
 	 * Name of source EJB
 	 */
@@ -103,6 +207,11 @@ public class EjbMocker {
 
 	protected ClassPool cp = new ClassPool();
 
+	/**
+	 * Cache for generated facades; null disables caching
+	 */
+	private EjbMockerCache cache;
+
 	/**
 	 * Simple fluent interface for building new mocked EJBs
 	 * 
@@ -124,6 +233,7 @@ public class EjbMocker {
 
 		public EjbMockerBuilder(String sourceClazz) {
 			this.instance = new EjbMocker(sourceClazz);
+			this.instance.setCache(EjbMockerCache.getDefault());
 		}
 
 		/**
@@ -149,6 +259,18 @@ public class EjbMocker {
 			return this;
 		}
 
+		/**
+		 * Sets the EJB type of the facade. With {@link FacadeType#STATELESS}
+		 * all pooled instances share one embedded mock.
+		 * 
+		 * @param facadeType
+		 * @return
+		 */
+		public EjbMockerBuilder facadeType(FacadeType facadeType) {
+			instance.setFacadeType(facadeType);
+			return this;
+		}
+
 		/**
 		 * Ignore method with given name; TODO: check method signature for
 		 * overloaded messages
@@ -161,6 +283,148 @@ public class EjbMocker {
 			return this;
 		}
 
+		/**
+		 * Creates the embedded mock inside the constructor of the facade. The
+		 * mock is stored in a final field and delegating methods access it
+		 * directly, so concurrent first calls can never create two different
+		 * mocks.
+		 * 
+		 * @param eager
+		 * @return
+		 */
+		public EjbMockerBuilder eagerMockInitialization(boolean eager) {
+			instance.setEagerMockInitialization(eager);
+			return this;
+		}
+
+		/**
+		 * Sets the concurrency of the javax.ejb.Singleton facade; it is
+		 * ignored for javax.ejb.Stateful facades
+		 * 
+		 * @param concurrency
+		 * @return
+		 */
+		public EjbMockerBuilder concurrency(FacadeConcurrency concurrency) {
+			instance.setConcurrency(concurrency);
+			return this;
+		}
+
+		/**
+		 * Annotates the method with given name with javax.ejb.Lock(READ), so
+		 * the container does not serialize calls of it
+		 * 
+		 * @param method
+		 * @return
+		 */
+		public EjbMockerBuilder readLockMethod(String method) {
+			instance.getReadLockMethods().add(method);
+			return this;
+		}
+
+		/**
+		 * The facade delegates to a precompiled {@link StubTable} instead of
+		 * an embedded Mockito instance. No invocations are recorded; use
+		 * {@link EjbMockerUtil#getStubTable(Object)} for stubbing.
+		 * 
+		 * @param useStubTable
+		 * @return
+		 */
+		public EjbMockerBuilder useStubTable(boolean useStubTable) {
+			instance.setUseStubTable(useStubTable);
+			return this;
+		}
+
+		/**
+		 * Caps the invocations recorded by the embedded Mockito instance. The
+		 * oldest invocations are dropped; use
+		 * {@link EjbMockerUtil#getInvocationHistory(Object)} to check the
+		 * bound.
+		 * 
+		 * @param limit
+		 *            0 records every invocation
+		 * @return
+		 */
+		public EjbMockerBuilder invocationHistoryLimit(int limit) {
+			instance.setInvocationHistoryLimit(limit);
+			return this;
+		}
+
+		/**
+		 * Keeps the original body of the method with given name (spy). The
+		 * fields of the source EJB are copied to the facade, so the container
+		 * injects them if their types are deployed.
+		 * 
+		 * @param method
+		 * @return
+		 */
+		public EjbMockerBuilder keepOriginalMethod(String method) {
+			instance.getKeptMethods().add(method);
+			return this;
+		}
+
+		/**
+		 * Every mocked method calls its original body if it has not been
+		 * stubbed (spy). The fields of the source EJB are copied to the
+		 * facade, so the container injects them if their types are deployed.
+		 * 
+		 * @param callRealMethods
+		 * @return
+		 */
+		public EjbMockerBuilder callRealMethodsWhenUnstubbed(boolean callRealMethods) {
+			instance.setCallRealMethodsWhenUnstubbed(callRealMethods);
+			return this;
+		}
+
+		/**
+		 * Compiles the given {@link StubDefinitions} into the facade. The
+		 * deployed facade answers with the defined return values from the
+		 * first request on, without any stubbing inside the test.
+		 * 
+		 * @param json
+		 * @return
+		 */
+		public EjbMockerBuilder stubDefinitions(String json) {
+			instance.setStubDefinitions(json);
+			return this;
+		}
+
+		/**
+		 * Compiles the {@link StubDefinitions} of the given UTF-8 encoded
+		 * JSON file into the facade
+		 * 
+		 * @param file
+		 * @return
+		 * @throws IOException
+		 */
+		public EjbMockerBuilder stubDefinitions(File file) throws IOException {
+			instance.setStubDefinitions(readStubDefinitions(file));
+			return this;
+		}
+
+		/**
+		 * Enables or disables the on-disk facade cache in
+		 * {@value EjbMockerCache#DEFAULT_CACHE_DIRECTORY}; it is enabled by
+		 * default
+		 * 
+		 * @param useCache
+		 * @return
+		 */
+		public EjbMockerBuilder useCache(boolean useCache) {
+			instance.setCache(useCache ? EjbMockerCache.getDefault() : null);
+			return this;
+		}
+
+		/**
+		 * Uses the given facade cache; null disables caching
+		 * 
+		 * @param cache
+		 * @return
+		 */
+		public EjbMockerBuilder cache(EjbMockerCache cache) {
+			instance.setCache(cache);
+			return this;
+		}
+
 		/**
 		 * Creates the EJB facade
 		 * 
@@ -172,13 +436,26 @@ public class EjbMocker {
 		}
 
 		/**
-		 * Creates the byte stream of the EJB facade
+		 * Creates the byte stream of the EJB facade. If the facade cache is
+		 * enabled and neither the EJB nor the options have been changed, the
+		 * cached bytecode is returned.
 		 * 
 		 * @return
 		 * @throws Exception
 		 */
 		public byte[] stream() throws Exception {
-			return instance.createCtClass().toBytecode();
+			return instance.createBytecode();
+		}
+
+		/**
+		 * Creates the byte streams of the EJB facade and, if it keeps or
+		 * calls original method bodies, of the nested classes of the EJB
+		 * 
+		 * @return bytecode by class name; the facade comes first
+		 * @throws Exception
+		 */
+		public Map<String, byte[]> streamWithNestedClasses() throws Exception {
+			return instance.createBytecodeWithNestedClasses();
 		}
 	}
 
@@ -193,6 +470,246 @@ public class EjbMocker {
 	 */
 	public EjbMocker(String sourceClazz) {
 		this.sourceClazz = sourceClazz;
+		cp.appendSystemPath();
+	}
+
+	/**
+	 * Creates a new mockable EJB facade which uses the given, probably shared,
+	 * {@link ClassPool}. The class path of the pool must already be set up.
+	 * 
+	 * @param sourceClazz
+	 *            You are *not* allowed to load the given class before it is
+	 *            mocked by this class.
+	 * @param cp
+	 */
+	public EjbMocker(String sourceClazz, ClassPool cp) {
+		this.sourceClazz = sourceClazz;
+		this.cp = cp;
+	}
+
+	/**
+	 * Copies every facade option of this instance to the given instance
+	 * 
+	 * @param target
+	 */
+	protected void copyOptionsTo(EjbMocker target) {
+		try {
+			for (Field field : getOptionFields()) {
+				Object value = field.get(this);
+
+				if (value instanceof List) {
+					value = new ArrayList<Object>((List<?>) value);
+				}
+
+				field.set(target, value);
+			}
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+
+		target.setCache(getCache());
+	}
+
+	/**
+	 * Returns all facade options, sorted by name
+	 * 
+	 * @return
+	 */
+	static List<Field> getOptionFields() {
+		List<Field> r = new ArrayList<Field>();
+
+		for (Field field : EjbMocker.class.getDeclaredFields()) {
+			if (!java.lang.reflect.Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()
+					&& !NON_OPTION_FIELDS.contains(field.getName())) {
+				r.add(field);
+			}
+		}
+
+		Collections.sort(r, new Comparator<Field>() {
+			@Override
+			public int compare(Field o1, Field o2) {
+				return o1.getName().compareTo(o2.getName());
+			}
+		});
+
+		return r;
+	}
+
+	/**
+	 * Reads the stub definitions of the given UTF-8 encoded JSON file
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static String readStubDefinitions(File file) throws IOException {
+		return new String(EjbMockerCache.readFully(new FileInputStream(file)), "UTF-8");
+	}
+
+	/**
+	 * Creates the bytecode of the facade. The facade cache is consulted
+	 * first; on a miss the facade is generated and stored inside the cache.
+	 * 
+	 * @return
+	 * @throws Exception
+	 */
+	public byte[] createBytecode() throws Exception {
+		if (cache == null) {
+			return emitBytecode();
+		}
+
+		String key = createCacheKey();
+		byte[] r = cache.get(key);
+
+		if (r == null) {
+			log.info("No cached facade for class " + this.sourceClazz + " available");
+			r = emitBytecode();
+			cache.put(key, r);
+		}
+
+		return r;
+	}
+
+	/**
+	 * Creates the bytecode of the facade and, for spy facades, of all nested
+	 * classes of the source EJB. Original method bodies create instances of
+	 * these classes, e.g. anonymous Callables, so they must be deployed next
+	 * to the facade. The nested classes are copied unchanged.
+	 * 
+	 * @return bytecode by class name; the facade comes first
+	 * @throws Exception
+	 */
+	public Map<String, byte[]> createBytecodeWithNestedClasses() throws Exception {
+		Map<String, byte[]> r = new LinkedHashMap<String, byte[]>();
+		r.put(this.sourceClazz, createBytecode());
+
+		if (isSpy()) {
+			addNestedClasses(readClassfile(this.sourceClazz), r);
+		}
+
+		return r;
+	}
+
+	/**
+	 * Adds the nested classes listed in the InnerClasses attribute of the
+	 * given class file and their nested classes
+	 * 
+	 * @param bytecode
+	 * @param nestedClasses
+	 * @throws Exception
+	 */
+	protected void addNestedClasses(byte[] bytecode, Map<String, byte[]> nestedClasses) throws Exception {
+		ClassFile cf = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytecode)));
+		InnerClassesAttribute innerClasses = (InnerClassesAttribute) cf.getAttribute(InnerClassesAttribute.tag);
+
+		if (innerClasses == null) {
+			return;
+		}
+
+		for (int i = 0; i < innerClasses.tableLength(); i++) {
+			String name = innerClasses.innerClass(i);
+
+			// the attribute also lists the enclosing classes and foreign
+			// nested classes which are only referenced
+			if (name == null || !name.startsWith(this.sourceClazz + "$") || nestedClasses.containsKey(name)) {
+				continue;
+			}
+
+			log.info("Adding nested class " + name + " to spy facade");
+			byte[] nestedBytecode = readClassfile(name);
+			nestedClasses.put(name, nestedBytecode);
+			addNestedClasses(nestedBytecode, nestedClasses);
+		}
+	}
+
+	/**
+	 * Generates the facade and returns its bytecode. If the facade has been
+	 * created inside a {@link BoundedClassPool}, it is released from the pool
+	 * afterwards.
+	 * 
+	 * @return
+	 * @throws Exception
+	 */
+	protected byte[] emitBytecode() throws Exception {
+		CtClass facade = createCtClass();
+		byte[] r = facade.toBytecode();
+
+		if (cp instanceof BoundedClassPool) {
+			((BoundedClassPool) cp).release(facade);
+		}
+
+		return r;
+	}
+
+	/**
+	 * Creates the key of the facade inside the {@link EjbMockerCache}. The key
+	 * consists of the hash of the source class file and of every option
+	 * which changes the generated facade.
+	 * 
+	 * @return
+	 * @throws Exception
+	 */
+	public String createCacheKey() throws Exception {
+		byte[] sourceBytecode = readClassfile(this.sourceClazz);
+
+		return this.sourceClazz + "-"
+				+ EjbMockerCache.hash(sourceBytecode, describeOptions().getBytes("UTF-8"));
+	}
+
+	/**
+	 * Reads the unmodified class file of the given class from the class path
+	 * of the pool
+	 * 
+	 * @param clazzName
+	 * @return
+	 * @throws NotFoundException
+	 *             if the class is not on the class path
+	 * @throws IOException
+	 */
+	protected byte[] readClassfile(String clazzName) throws NotFoundException, IOException {
+		InputStream is = cp.openClassfile(clazzName);
+
+		if (is == null) {
+			throw new NotFoundException("Class file of " + clazzName + " not found");
+		}
+
+		return EjbMockerCache.readFully(is);
+	}
+
+	/**
+	 * Returns a stable description of all options which influence the
+	 * generated facade. It is built from {@link #getOptionFields()}, so new
+	 * options are part of it without further changes; method lists are
+	 * sorted.
+	 * 
+	 * @return
+	 */
+	protected String describeOptions() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("version=").append(FACADE_FORMAT_VERSION);
+
+		try {
+			for (Field field : getOptionFields()) {
+				Object value = field.get(this);
+
+				if (value instanceof List) {
+					List<String> sorted = new ArrayList<String>();
+
+					for (Object item : (List<?>) value) {
+						sorted.add(String.valueOf(item));
+					}
+
+					Collections.sort(sorted);
+					value = sorted;
+				}
+
+				sb.append(";").append(field.getName()).append("=").append(value);
+			}
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+
+		return sb.toString();
 	}
 
 	/**
@@ -202,8 +719,6 @@ public class EjbMocker {
 	 * @throws Exception
 	 */
 	public CtClass createCtClass() throws Exception {
-		cp.appendSystemPath();
-
 		log.info("Creating new facade for class " + this.sourceClazz);
 
 		// append class name during creation or we will run into problems
@@ -214,11 +729,55 @@ public class EjbMocker {
 
 		// the order of building the class content is important. We can not
 		// access fields which are not generated yet.
-		addMockProviderField(r);
-		addEjbAnnotation(r);
-		createMethodSignatures(r);
-		addEmbeddedMockAccessor(r);
-		updateMethodBodiesForDelegatingToEmbeddedMock(r);
+		if (isUseStubTable()) {
+			if (getInvocationHistoryLimit() > 0) {
+				log.warning("Facades with stub table do not record any invocation; history limit will be ignored");
+			}
+
+			addEjbAnnotation(r);
+
+			if (isSpy()) {
+				addSourceFields(r);
+			}
+
+			createMethodSignatures(r);
+			// the table needs the keys of all facade methods
+			List<CtMethod> methods = getDelegatingMethods(r);
+			checkStubDefinitions(methods);
+			addStubTableField(r, methods);
+			addStubTableAccessor(r);
+			updateMethodBodiesForDelegatingToStubTable(r, methods);
+			completeMissingFutures(methods);
+
+			if (getStubDefinitions() != null) {
+				addStubDefinitionsAccessor(r, EjbMockerUtil.TARGET_FIELD_STUBS);
+			}
+		} else {
+			if (isInvocationHistoryBounded()) {
+				addInvocationHistoryField(r);
+			}
+
+			addMockProviderField(r);
+			addEjbAnnotation(r);
+
+			if (isSpy()) {
+				addSourceFields(r);
+			}
+
+			createMethodSignatures(r);
+			checkStubDefinitions(getDelegatingMethods(r));
+			addEmbeddedMockAccessor(r);
+			updateMethodBodiesForDelegatingToEmbeddedMock(r);
+			completeMissingFutures(getDelegatingMethods(r));
+
+			if (isInvocationHistoryBounded()) {
+				addInvocationHistoryAccessor(r);
+			}
+
+			if (getStubDefinitions() != null) {
+				addStubDefinitionsAccessor(r, EjbMockerUtil.MOCK_ACCESSOR + "()");
+			}
+		}
 
 		r.setName(this.sourceClazz);
 
@@ -229,40 +788,119 @@ public class EjbMocker {
 	 * Adds the javax.ejb.Stateful or javax.ejb.Singleton/javax.ejb.Startup
 	 * annotations to the given class so we have only one EJB instance at the
 	 * same time. Using the Singleton is the safer method as we can have
-	 * multiple calls in different sessions.
+	 * multiple calls in different sessions. javax.ejb.Stateless facades are
+	 * pooled but share their embedded mock.
 	 * 
 	 * @param clazz
 	 * @throws Exception
 	 */
 	protected void addEjbAnnotation(CtClass clazz) throws Exception {
-		log.fine("Adding javax.ejb.Stateful annotation on class level");
+		log.fine("Adding EJB annotations for " + getFacadeType() + " on class level");
 
 		ClassFile cf = clazz.getClassFile();
 
-		if (isUseSingletonInsteadOfStateful()) {
+		if (!isUseSingletonInsteadOfStateful() && hasConcurrencySettings()) {
+			log.warning("Concurrency settings are only supported for javax.ejb.Singleton facades and will be ignored");
+		}
+
+		if (getFacadeType() == FacadeType.STATELESS) {
+			AnnotationsAttribute statelessAttribute = new AnnotationsAttribute(cf.getConstPool(),
+					AnnotationsAttribute.visibleTag);
+			Annotation statelessAnnotation = new Annotation(cf.getConstPool(), cp.get("javax.ejb.Stateless"));
+			statelessAttribute.addAnnotation(statelessAnnotation);
+			cf.addAttribute(statelessAttribute);
+		} else if (isUseSingletonInsteadOfStateful()) {
 			AnnotationsAttribute clazzAttributes = new AnnotationsAttribute(cf.getConstPool(),
 					AnnotationsAttribute.visibleTag);
 			
-			Annotation singletonAnnotation = new Annotation(clazz.getClassFile().getConstPool(), ClassPool.getDefault()
-					.get("javax.ejb.Singleton"));
-			Annotation startupAnnotation = new Annotation(clazz.getClassFile().getConstPool(), ClassPool.getDefault()
-					.get("javax.ejb.Startup"));
+			Annotation singletonAnnotation = new Annotation(clazz.getClassFile().getConstPool(), cp.get("javax.ejb.Singleton"));
+			Annotation startupAnnotation = new Annotation(clazz.getClassFile().getConstPool(), cp.get("javax.ejb.Startup"));
 
 			clazzAttributes.addAnnotation(singletonAnnotation);
 			clazzAttributes.addAnnotation(startupAnnotation);
+
+			if (getConcurrency() == FacadeConcurrency.BEAN) {
+				log.fine("Adding javax.ejb.ConcurrencyManagement(BEAN) annotation on class level");
+				clazzAttributes.addAnnotation(createEnumAnnotation(cf.getConstPool(),
+						"javax.ejb.ConcurrencyManagement", "javax.ejb.ConcurrencyManagementType", "BEAN"));
+			} else if (getConcurrency() == FacadeConcurrency.CONTAINER_READ) {
+				log.fine("Adding javax.ejb.Lock(READ) annotation on class level");
+				clazzAttributes.addAnnotation(createEnumAnnotation(cf.getConstPool(), "javax.ejb.Lock",
+						"javax.ejb.LockType", "READ"));
+			}
+
 			cf.addAttribute(clazzAttributes);
 		} else {
 			AnnotationsAttribute statefulAttribute = new AnnotationsAttribute(cf.getConstPool(),
 					AnnotationsAttribute.visibleTag);
-			Annotation statefulAnnotation = new Annotation(clazz.getClassFile().getConstPool(), ClassPool.getDefault()
-					.get("javax.ejb.Stateful"));
+			Annotation statefulAnnotation = new Annotation(clazz.getClassFile().getConstPool(), cp.get("javax.ejb.Stateful"));
 			statefulAttribute.addAnnotation(statefulAnnotation);
 			cf.addAttribute(statefulAttribute);
 		}
 
+		if (hasAnnotation(cp.get(this.sourceClazz).getClassFile().getAttribute(AnnotationsAttribute.visibleTag),
+				ASYNCHRONOUS_ANNOTATION)) {
+			log.fine("Adding " + ASYNCHRONOUS_ANNOTATION + " annotation on class level");
+			((AnnotationsAttribute) cf.getAttribute(AnnotationsAttribute.visibleTag)).addAnnotation(new Annotation(
+					ASYNCHRONOUS_ANNOTATION, cf.getConstPool()));
+		}
+
 		cf.setVersionToJava5();
 	}
 
+	/**
+	 * Creates an annotation with a single enum value, e.g.
+	 * javax.ejb.Lock(javax.ejb.LockType.READ)
+	 * 
+	 * @param constPool
+	 * @param annotationType
+	 * @param enumType
+	 * @param enumValue
+	 * @return
+	 */
+	protected Annotation createEnumAnnotation(ConstPool constPool, String annotationType, String enumType,
+			String enumValue) {
+		EnumMemberValue value = new EnumMemberValue(constPool);
+		value.setType(enumType);
+		value.setValue(enumValue);
+
+		Annotation r = new Annotation(annotationType, constPool);
+		r.addMemberValue("value", value);
+
+		return r;
+	}
+
+	/**
+	 * Returns true if the given annotations attribute contains the annotation
+	 * 
+	 * @param attribute
+	 *            may be null
+	 * @param annotation
+	 * @return
+	 */
+	protected boolean hasAnnotation(AttributeInfo attribute, String annotation) {
+		return attribute != null && ((AnnotationsAttribute) attribute).getAnnotation(annotation) != null;
+	}
+
+	/**
+	 * Adds the annotation to the given method. Annotations copied from the
+	 * source method are kept.
+	 * 
+	 * @param method
+	 * @param annotation
+	 */
+	protected void addMethodAnnotation(CtMethod method, Annotation annotation) {
+		MethodInfo methodInfo = method.getMethodInfo();
+		AnnotationsAttribute attribute = (AnnotationsAttribute) methodInfo.getAttribute(AnnotationsAttribute.visibleTag);
+
+		if (attribute == null) {
+			attribute = new AnnotationsAttribute(methodInfo.getConstPool(), AnnotationsAttribute.visibleTag);
+			methodInfo.addAttribute(attribute);
+		}
+
+		attribute.addAnnotation(annotation);
+	}
+
 	/**
 	 * Creates a new {@link Class} instance for Arquillian deployment
 	 * 
@@ -281,7 +919,9 @@ public class EjbMocker {
 	}
 
 	/**
-	 * Add field for "real" mocked instance.
+	 * Add field for "real" mocked instance. With eager mock initialization the
+	 * field is final and assigned inside every constructor. Stateless facades
+	 * get a static final field which is assigned by the class initializer.
 	 * 
 	 * @param clazz
 	 * @throws Exception
@@ -289,10 +929,198 @@ public class EjbMocker {
 	protected void addMockProviderField(CtClass clazz) throws Exception {
 		log.fine("Adding field " + EjbMockerUtil.TARGET_FIELD_MOCK + " to facade");
 		CtField field = new CtField(cp.get(clazz.getName()), EjbMockerUtil.TARGET_FIELD_MOCK, clazz);
-		field.setModifiers(Modifier.PUBLIC);
+
+		if (!isMockCreatedEagerly()) {
+			field.setModifiers(Modifier.PUBLIC);
+			clazz.addField(field);
+			return;
+		}
+
+		String createMock = getMockReference(clazz) + " = " + createMockExpression(clazz) + ";";
+
+		if (isInvocationHistoryBounded()) {
+			createMock += getHistoryReference(clazz) + " = new " + InvocationHistory.class.getName() + "("
+					+ getMockReference(clazz) + ", " + getInvocationHistoryLimit() + ");";
+		}
+
+		// Mockito instantiates its subclass of the facade without calling any
+		// constructor, so this does not recurse
+		if (isMockShared()) {
+			field.setModifiers(Modifier.PUBLIC | Modifier.STATIC | Modifier.FINAL);
+			clazz.addField(field);
+			clazz.makeClassInitializer().insertAfter(createMock);
+		} else {
+			field.setModifiers(Modifier.PUBLIC | Modifier.FINAL);
+			clazz.addField(field);
+
+			for (CtConstructor constructor : clazz.getDeclaredConstructors()) {
+				constructor.insertAfter(createMock);
+			}
+		}
+	}
+
+	/**
+	 * Returns the source code which creates the embedded mock. Mocks of spy
+	 * facades answer unstubbed invocations with {@link UnstubbedAnswer}.
+	 * 
+	 * @param clazz
+	 * @return
+	 */
+	protected String createMockExpression(CtClass clazz) {
+		String r = "org.mockito.Mockito.mock(" + clazz.getName() + ".class";
+
+		if (isCallRealMethodsWhenUnstubbed()) {
+			r += ", new " + UnstubbedAnswer.class.getName() + "()";
+		}
+
+		r += ")";
+
+		if (getStubDefinitions() != null) {
+			r = StubDefinitions.class.getName() + ".apply(" + r + ", " + clazz.getName() + ".class, "
+					+ getStubDefinitionsLiteral() + ")";
+		}
+
+		return "(" + clazz.getName() + ")" + r;
+	}
+
+	/**
+	 * Checks that every stub definition matches at least one of the given
+	 * facade methods, so broken definitions fail while building the
+	 * deployment and not inside the container
+	 * 
+	 * @param methods
+	 * @throws Exception
+	 */
+	protected void checkStubDefinitions(List<CtMethod> methods) throws Exception {
+		if (getStubDefinitions() == null) {
+			return;
+		}
+
+		Set<String> keys = StubDefinitions.parse(getStubDefinitions()).keySet();
+		log.info("Compiling " + keys.size() + " stub definitions into facade");
+
+		for (String key : keys) {
+			boolean found = false;
+
+			for (CtMethod method : methods) {
+				CtClass[] parameterTypes = method.getParameterTypes();
+				String[] parameterTypeNames = new String[parameterTypes.length];
+
+				for (int i = 0; i < parameterTypes.length; i++) {
+					parameterTypeNames[i] = parameterTypes[i].getName();
+				}
+
+				found |= StubDefinitions.matches(key, method.getName(), parameterTypeNames);
+			}
+
+			if (!found) {
+				throw new IllegalArgumentException("Stub definition " + key + " does not match any mocked method of "
+						+ this.sourceClazz);
+			}
+		}
+	}
+
+	/**
+	 * @return the stub definitions as Java string literal
+	 */
+	protected String getStubDefinitionsLiteral() {
+		// the JSON has been written by Json.write and contains only ASCII
+		return "\"" + getStubDefinitions().replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	/**
+	 * Copies all fields of the source EJB including their annotations to the
+	 * spy facade, so the container can inject them. Field initializers are
+	 * not copied.
+	 * 
+	 * @param clazz
+	 * @throws Exception
+	 */
+	protected void addSourceFields(CtClass clazz) throws Exception {
+		for (CtField sourceField : cp.get(this.sourceClazz).getDeclaredFields()) {
+			log.info("Copying field " + sourceField.getName() + " to spy facade");
+			clazz.addField(new CtField(sourceField, clazz));
+		}
+	}
+
+	/**
+	 * Adds the field for the {@link InvocationHistory} of the embedded mock.
+	 * It is assigned together with the mock, see
+	 * {@link #addMockProviderField(CtClass)}.
+	 * 
+	 * @param clazz
+	 * @throws Exception
+	 */
+	protected void addInvocationHistoryField(CtClass clazz) throws Exception {
+		log.fine("Adding field " + EjbMockerUtil.TARGET_FIELD_HISTORY + " to facade");
+
+		CtField field = new CtField(cp.get(InvocationHistory.class.getName()), EjbMockerUtil.TARGET_FIELD_HISTORY,
+				clazz);
+		field.setModifiers(Modifier.PUBLIC | Modifier.FINAL | (isMockShared() ? Modifier.STATIC : 0));
 		clazz.addField(field);
 	}
 
+	/**
+	 * Adds {@value EjbMockerUtil#HISTORY_ACCESSOR}() to the facade
+	 * 
+	 * @param clazz
+	 * @throws Exception
+	 */
+	protected void addInvocationHistoryAccessor(CtClass clazz) throws Exception {
+		log.fine("Adding " + EjbMockerUtil.HISTORY_ACCESSOR + "() to facade");
+
+		clazz.addMethod(CtNewMethod.make("public Object " + EjbMockerUtil.HISTORY_ACCESSOR + "() { return "
+				+ getHistoryReference(clazz) + "; }", clazz));
+	}
+
+	/**
+	 * Adds {@value EjbMockerUtil#STUB_DEFINITIONS_ACCESSOR}() to the facade.
+	 * It applies the compiled {@link StubDefinitions} again, so
+	 * {@link EjbMockerUtil#reset(Object)} restores them.
+	 * 
+	 * @param clazz
+	 * @param target
+	 *            expression of the {@link StubTable} or the embedded mock
+	 * @throws Exception
+	 */
+	protected void addStubDefinitionsAccessor(CtClass clazz, String target) throws Exception {
+		log.fine("Adding " + EjbMockerUtil.STUB_DEFINITIONS_ACCESSOR + "() to facade");
+
+		clazz.addMethod(CtNewMethod.make("public Object " + EjbMockerUtil.STUB_DEFINITIONS_ACCESSOR + "() { return "
+				+ StubDefinitions.class.getName() + ".apply(" + target + ", " + clazz.getName() + ".class, "
+				+ getStubDefinitionsLiteral() + "); }", clazz));
+	}
+
+	/**
+	 * Returns the expression for accessing the invocation history field
+	 * inside the facade
+	 * 
+	 * @param clazz
+	 * @return
+	 */
+	protected String getHistoryReference(CtClass clazz) {
+		if (isMockShared()) {
+			return clazz.getName() + "." + EjbMockerUtil.TARGET_FIELD_HISTORY;
+		}
+
+		return "this." + EjbMockerUtil.TARGET_FIELD_HISTORY;
+	}
+
+	/**
+	 * Returns the expression for accessing the embedded mock field inside the
+	 * facade
+	 * 
+	 * @param clazz
+	 * @return
+	 */
+	protected String getMockReference(CtClass clazz) {
+		if (isMockShared()) {
+			return clazz.getName() + "." + EjbMockerUtil.TARGET_FIELD_MOCK;
+		}
+
+		return "this." + EjbMockerUtil.TARGET_FIELD_MOCK;
+	}
+
 	/**
 	 * Adds the mocking provider method {@link MockObjectProvider#getMock()} to
 	 * the generated implementation.
@@ -309,11 +1137,18 @@ public class EjbMocker {
 
 		log.fine("Adding " + EjbMockerUtil.MOCK_ACCESSOR + "() to facade");
 
+		if (isMockCreatedEagerly()) {
+			// the field has already been assigned by the constructor or class
+			// initializer
+			clazz.addMethod(CtNewMethod.make("public Object " + EjbMockerUtil.MOCK_ACCESSOR + "() { return "
+					+ getMockReference(clazz) + "; }", clazz));
+			return;
+		}
+
 		// must use FQDN for static methods;
 		CtMethod mockitoMethod = CtNewMethod.make("public Object " + EjbMockerUtil.MOCK_ACCESSOR + "() { if (this."
-				+ EjbMockerUtil.TARGET_FIELD_MOCK + " == null) { this." + EjbMockerUtil.TARGET_FIELD_MOCK + " = ("
-				+ clazz.getName() + ")org.mockito.Mockito.mock(" + clazz.getName() + ".class); } return this."
-				+ EjbMockerUtil.TARGET_FIELD_MOCK + "; }", clazz);
+				+ EjbMockerUtil.TARGET_FIELD_MOCK + " == null) { this." + EjbMockerUtil.TARGET_FIELD_MOCK + " = "
+				+ createMockExpression(clazz) + "; } return this." + EjbMockerUtil.TARGET_FIELD_MOCK + "; }", clazz);
 
 		// @PostConstruct *should* be working but:
 		// https://community.jboss.org/thread/231014?tstart=0 and
@@ -358,6 +1193,22 @@ public class EjbMocker {
 				continue;
 			}
 
+			// synthetic accessors are called by the nested classes of the EJB
+			if (getKeptMethods().contains(sourceMethod.getName()) || (isSpy() && isSynthetic(sourceMethod))) {
+				log.info("Method " + sourceMethod.getName() + " keeps its original body");
+				CtMethod keptMethod = copyMethod(sourceMethod, sourceMethod.getName(), clazz);
+				copySignature(sourceMethod, keptMethod);
+				copyAnnotations(sourceMethod, keptMethod);
+				clazz.addMethod(keptMethod);
+				continue;
+			}
+
+			if (isCallRealMethodsWhenUnstubbed()) {
+				CtMethod realMethod = copyMethod(sourceMethod, REAL_METHOD_PREFIX + sourceMethod.getName(), clazz);
+				realMethod.setModifiers(Modifier.setPrivate(realMethod.getModifiers()));
+				clazz.addMethod(realMethod);
+			}
+
 			StringBuilder sb = new StringBuilder();
 			sb.append("{");
 
@@ -390,11 +1241,80 @@ public class EjbMocker {
 			}
 
 			newMethod.setBody(sb.toString());
+			copySignature(sourceMethod, newMethod);
+			copyAnnotations(sourceMethod, newMethod);
+
 			// don't forget to add the method to our class
 			clazz.addMethod(newMethod);
 		}
 	}
 
+	/**
+	 * Adds the container annotations of a facade method:
+	 * javax.ejb.Lock(READ) for the {@link #getReadLockMethods()} of a
+	 * singleton facade and {@value #ASYNCHRONOUS_ANNOTATION} if the source
+	 * method is asynchronous. CtNewMethod.copy does not copy any annotation;
+	 * without them the container would call the facade synchronously and
+	 * exclusively.
+	 * 
+	 * @param sourceMethod
+	 * @param method
+	 * @throws Exception
+	 */
+	protected void copyAnnotations(CtMethod sourceMethod, CtMethod method) throws Exception {
+		if (isUseSingletonInsteadOfStateful() && getReadLockMethods().contains(method.getName())) {
+			log.info("Method " + method.getName() + " will be annotated with javax.ejb.Lock(READ)");
+			addMethodAnnotation(method, createEnumAnnotation(method.getMethodInfo().getConstPool(),
+					"javax.ejb.Lock", "javax.ejb.LockType", "READ"));
+		}
+
+		if (hasAnnotation(sourceMethod.getMethodInfo().getAttribute(AnnotationsAttribute.visibleTag),
+				ASYNCHRONOUS_ANNOTATION)) {
+			log.info("Method " + method.getName() + " will be annotated with " + ASYNCHRONOUS_ANNOTATION);
+			addMethodAnnotation(method, new Annotation(ASYNCHRONOUS_ANNOTATION, method.getMethodInfo()
+					.getConstPool()));
+		}
+	}
+
+	private boolean isSynthetic(CtMethod method) {
+		return (method.getMethodInfo().getAccessFlags() & AccessFlag.SYNTHETIC) != 0;
+	}
+
+	/**
+	 * Copies the generic signature of the source method, so the return type
+	 * of the facade method can be resolved by {@link StubDefinitions}
+	 * 
+	 * @param sourceMethod
+	 * @param method
+	 */
+	protected void copySignature(CtMethod sourceMethod, CtMethod method) {
+		MethodInfo methodInfo = method.getMethodInfo();
+		AttributeInfo signature = sourceMethod.getMethodInfo().getAttribute(SignatureAttribute.tag);
+
+		if (signature != null && methodInfo.getAttribute(SignatureAttribute.tag) == null) {
+			methodInfo.addAttribute(signature.copy(methodInfo.getConstPool(), null));
+		}
+	}
+
+	/**
+	 * Copies the source method including its original body
+	 * 
+	 * @param sourceMethod
+	 * @param name
+	 * @param clazz
+	 * @return
+	 * @throws Exception
+	 */
+	protected CtMethod copyMethod(CtMethod sourceMethod, String name, CtClass clazz) throws Exception {
+		CtMethod r = CtNewMethod.copy(sourceMethod, name, clazz, null);
+
+		if (isSuppressExceptions()) {
+			r.setExceptionTypes(null);
+		}
+
+		return r;
+	}
+
 	/**
 	 * Updates every facade method to forward the incoming method calls to the
 	 * embedded Mockito instance
@@ -403,12 +1323,8 @@ public class EjbMocker {
 	 * @throws Exception
 	 */
 	protected void updateMethodBodiesForDelegatingToEmbeddedMock(CtClass clazz) throws Exception {
-		for (CtMethod method : clazz.getDeclaredMethods()) {
-			// the accesor method must be ignored
-			if (method.getName().equals(EjbMockerUtil.MOCK_ACCESSOR)) {
-				continue;
-			}
-
+		// the accesor methods must be ignored
+		for (CtMethod method : getDelegatingMethods(clazz)) {
 			log.fine("Uptdating method body for " + method.getLongName());
 
 			StringBuilder sb = new StringBuilder();
@@ -417,9 +1333,16 @@ public class EjbMocker {
 				sb.append("return ");
 			}
 
-			// the class cast is required, otherwise we don't fulfil the interface
-			// specification.
-			sb.append("((" + clazz.getName() + ")this." + EjbMockerUtil.MOCK_ACCESSOR + "()).");
+			if (isMockCreatedEagerly()) {
+				// the final field is already typed; no accessor call and no cast
+				// on the hot path
+				sb.append(getMockReference(clazz) + ".");
+			} else {
+				// the class cast is required, otherwise we don't fulfil the
+				// interface specification.
+				sb.append("((" + clazz.getName() + ")this." + EjbMockerUtil.MOCK_ACCESSOR + "()).");
+			}
+
 			sb.append(method.getName());
 			sb.append("(");
 			// $$ resolves to: "every method parameter"
@@ -428,10 +1351,191 @@ public class EjbMocker {
 
 			String methodBody = sb.toString();
 
+			if (isCallRealMethodsWhenUnstubbed()) {
+				methodBody = createSpyMethodBody(method, methodBody);
+			}
+
 			log.finest("Generated method body: " + methodBody);
 
 			// replace empty method body with forwarding body
 			method.setBody(methodBody);
+
+			if (isInvocationHistoryBounded()) {
+				// also after exceptions, e.g. of thenThrow stubbings
+				method.insertAfter(getHistoryReference(clazz) + ".afterInvocation();", true);
+			}
+		}
+	}
+
+	/**
+	 * Wraps the delegation to the embedded mock, so that the original method
+	 * is called if the mock has answered with {@link UnstubbedAnswer}
+	 * 
+	 * @param method
+	 * @param delegation
+	 *            statement which calls the embedded mock, e.g.
+	 *            "return mock.findUsers($$);"
+	 * @return
+	 * @throws Exception
+	 */
+	protected String createSpyMethodBody(CtMethod method, String delegation) throws Exception {
+		String answer = UnstubbedAnswer.class.getName();
+		String realCall = "this." + REAL_METHOD_PREFIX + method.getName() + "($$)";
+		String mockCall = delegation.substring(delegation.startsWith("return ") ? "return ".length() : 0,
+				delegation.length() - 1);
+
+		if (method.getReturnType() == CtClass.voidType) {
+			return "{ " + answer + ".begin(); " + mockCall + "; if (" + answer + ".end()) { " + realCall + "; } }";
+		}
+
+		// ($w) boxes primitive return values, ($r) unboxes them again
+		return "{ " + answer + ".begin(); Object r = ($w) " + mockCall + "; if (" + answer + ".end()) { return "
+				+ realCall + "; } return ($r) r; }";
+	}
+
+	/**
+	 * Lets every method returning a {@link java.util.concurrent.Future} return
+	 * a {@link CompletedFuture} instead of null. Unstubbed asynchronous
+	 * methods would otherwise hand null to the container.
+	 * 
+	 * @param methods
+	 * @throws Exception
+	 */
+	protected void completeMissingFutures(List<CtMethod> methods) throws Exception {
+		for (CtMethod method : methods) {
+			if (!method.getReturnType().getName().equals(FUTURE_TYPE)) {
+				continue;
+			}
+
+			log.fine("Completing missing futures of " + method.getLongName());
+			method.insertAfter("if ($_ == null) { $_ = new " + CompletedFuture.class.getName() + "(null); }");
+		}
+	}
+
+	/**
+	 * Returns all methods of the facade which delegate to the embedded mock
+	 * or the stub table
+	 * 
+	 * @param clazz
+	 * @return
+	 */
+	protected List<CtMethod> getDelegatingMethods(CtClass clazz) {
+		List<CtMethod> r = new ArrayList<CtMethod>();
+
+		for (CtMethod method : clazz.getDeclaredMethods()) {
+			if (method.getName().equals(EjbMockerUtil.MOCK_ACCESSOR)
+					|| method.getName().equals(EjbMockerUtil.STUB_ACCESSOR)
+					|| method.getName().equals(EjbMockerUtil.HISTORY_ACCESSOR)
+					|| method.getName().equals(EjbMockerUtil.STUB_DEFINITIONS_ACCESSOR)
+					|| method.getName().startsWith(REAL_METHOD_PREFIX) || getKeptMethods().contains(method.getName())
+					|| (isSpy() && isSynthetic(method))) {
+				continue;
+			}
+
+			r.add(method);
+		}
+
+		return r;
+	}
+
+	/**
+	 * Adds the static {@link StubTable} field. The table is created by the
+	 * class initializer and knows the key of every facade method; the index
+	 * of a method inside the given list is its index inside the table.
+	 * 
+	 * @param clazz
+	 * @param methods
+	 * @throws Exception
+	 */
+	protected void addStubTableField(CtClass clazz, List<CtMethod> methods) throws Exception {
+		log.fine("Adding field " + EjbMockerUtil.TARGET_FIELD_STUBS + " to facade");
+
+		CtField field = new CtField(cp.get(StubTable.class.getName()), EjbMockerUtil.TARGET_FIELD_STUBS, clazz);
+		field.setModifiers(Modifier.PUBLIC | Modifier.STATIC | Modifier.FINAL);
+		clazz.addField(field);
+
+		StringBuilder keys = new StringBuilder();
+
+		for (CtMethod method : methods) {
+			if (keys.length() > 0) {
+				keys.append(StubTable.METHOD_SEPARATOR);
+			}
+
+			keys.append(method.getName()).append(method.getSignature());
+		}
+
+		String createTable = "new " + StubTable.class.getName() + "(\"" + keys + "\")";
+
+		if (getStubDefinitions() != null) {
+			createTable = StubDefinitions.class.getName() + ".apply(" + createTable + ", " + clazz.getName()
+					+ ".class, " + getStubDefinitionsLiteral() + ")";
+		}
+
+		clazz.makeClassInitializer().insertAfter(EjbMockerUtil.TARGET_FIELD_STUBS + " = " + createTable + ";");
+	}
+
+	/**
+	 * Adds {@value EjbMockerUtil#STUB_ACCESSOR}() to the facade
+	 * 
+	 * @param clazz
+	 * @throws Exception
+	 */
+	protected void addStubTableAccessor(CtClass clazz) throws Exception {
+		log.fine("Adding " + EjbMockerUtil.STUB_ACCESSOR + "() to facade");
+
+		clazz.addMethod(CtNewMethod.make("public Object " + EjbMockerUtil.STUB_ACCESSOR + "() { return "
+				+ EjbMockerUtil.TARGET_FIELD_STUBS + "; }", clazz));
+	}
+
+	/**
+	 * Updates every facade method to return the answer of its
+	 * {@link StubTable} entry. The call arguments are only passed if the
+	 * registered answer needs them.
+	 * 
+	 * @param clazz
+	 * @param methods
+	 * @throws Exception
+	 */
+	protected void updateMethodBodiesForDelegatingToStubTable(CtClass clazz, List<CtMethod> methods)
+			throws Exception {
+		for (int i = 0; i < methods.size(); i++) {
+			CtMethod method = methods.get(i);
+
+			log.fine("Uptdating method body for " + method.getLongName());
+
+			String entry = StubTable.Entry.class.getName() + " entry = " + EjbMockerUtil.TARGET_FIELD_STUBS
+					+ ".entry(" + i + "); ";
+			StringBuilder sb = new StringBuilder();
+			// the entry is read once, so its answer and flags belong together
+			sb.append("{ Object r; ").append(entry);
+
+			if (isCallRealMethodsWhenUnstubbed()) {
+				String realCall = "this." + REAL_METHOD_PREFIX + method.getName() + "($$)";
+				sb.append("if (!entry.isStubbed()) { ");
+				sb.append(method.getReturnType() == CtClass.voidType ? realCall + "; return; " : "return " + realCall
+						+ "; ");
+				sb.append("} ");
+			}
+
+			if (method.getParameterTypes().length == 0) {
+				sb.append("r = entry.answer(); ");
+			} else {
+				// $args allocates an array, so we only create it on demand
+				sb.append("if (entry.isArgumentAware()) { r = entry.answer($args); } else { r = entry.answer(); } ");
+			}
+
+			if (method.getReturnType() != CtClass.voidType) {
+				// ($r) unboxes primitive return values
+				sb.append("return ($r) r; ");
+			}
+
+			sb.append("}");
+
+			String methodBody = sb.toString();
+
+			log.finest("Generated method body: " + methodBody);
+
+			method.setBody(methodBody);
 		}
 	}
 
@@ -466,10 +1570,10 @@ public class EjbMocker {
 	}
 
 	/**
-	 * @return the useSingletonInsteadOfStateful
+	 * @return true if the facade is a javax.ejb.Singleton
 	 */
 	public boolean isUseSingletonInsteadOfStateful() {
-		return useSingletonInsteadOfStateful;
+		return facadeType == FacadeType.SINGLETON;
 	}
 
 	/**
@@ -480,6 +1584,233 @@ public class EjbMocker {
 	 *            the useSingletonInsteadOfStateful to set
 	 */
 	public void setUseSingletonInsteadOfStateful(boolean useSingletonInsteadOfStateful) {
-		this.useSingletonInsteadOfStateful = useSingletonInsteadOfStateful;
+		this.facadeType = useSingletonInsteadOfStateful ? FacadeType.SINGLETON : FacadeType.STATEFUL;
+	}
+
+	/**
+	 * @return the EJB type of the facade
+	 */
+	public FacadeType getFacadeType() {
+		return facadeType;
+	}
+
+	/**
+	 * Sets the EJB type of the facade
+	 * 
+	 * @param facadeType
+	 */
+	public void setFacadeType(FacadeType facadeType) {
+		this.facadeType = facadeType;
+	}
+
+	/**
+	 * @return the eagerMockInitialization
+	 */
+	public boolean isEagerMockInitialization() {
+		return eagerMockInitialization;
+	}
+
+	/**
+	 * The embedded mock is created inside the constructor of the facade and
+	 * stored in a final field
+	 * 
+	 * @param eagerMockInitialization
+	 *            the eagerMockInitialization to set
+	 */
+	public void setEagerMockInitialization(boolean eagerMockInitialization) {
+		this.eagerMockInitialization = eagerMockInitialization;
+	}
+
+	/**
+	 * @return the concurrency of the javax.ejb.Singleton facade
+	 */
+	public FacadeConcurrency getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * Sets the concurrency of the javax.ejb.Singleton facade
+	 * 
+	 * @param concurrency
+	 */
+	public void setConcurrency(FacadeConcurrency concurrency) {
+		this.concurrency = concurrency;
+	}
+
+	public List<String> getReadLockMethods() {
+		return readLockMethods;
+	}
+
+	/**
+	 * Methods with given name will be annotated with javax.ejb.Lock(READ)
+	 * 
+	 * @param readLockMethods
+	 */
+	public void setReadLockMethods(List<String> readLockMethods) {
+		this.readLockMethods = readLockMethods;
+	}
+
+	/**
+	 * @return true if multiple threads may enter the facade at the same time
+	 */
+	protected boolean isConcurrentAccessAllowed() {
+		if (getFacadeType() == FacadeType.STATELESS) {
+			// pooled instances share the embedded mock
+			return true;
+		}
+
+		return isUseSingletonInsteadOfStateful() && hasConcurrencySettings();
+	}
+
+	/**
+	 * @return true if any container concurrency setting differs from the EJB
+	 *         default
+	 */
+	protected boolean hasConcurrencySettings() {
+		return getConcurrency() != FacadeConcurrency.CONTAINER_WRITE || !getReadLockMethods().isEmpty();
+	}
+
+	/**
+	 * @return true if all facade instances share one embedded mock
+	 */
+	protected boolean isMockShared() {
+		return getFacadeType() == FacadeType.STATELESS;
+	}
+
+	/**
+	 * The embedded mock is created inside the constructor if it has been
+	 * requested or if concurrent threads can enter the facade. Lazy
+	 * initialization would not be safe in the latter case.
+	 * 
+	 * @return
+	 */
+	protected boolean isMockCreatedEagerly() {
+		// the history is created together with the mock
+		return isEagerMockInitialization() || isConcurrentAccessAllowed() || isInvocationHistoryBounded();
+	}
+
+	/**
+	 * @return true if the embedded mock drops old invocations
+	 */
+	protected boolean isInvocationHistoryBounded() {
+		return !isUseStubTable() && getInvocationHistoryLimit() > 0;
+	}
+
+	/**
+	 * @return true if the facade delegates to a {@link StubTable}
+	 */
+	public boolean isUseStubTable() {
+		return useStubTable;
+	}
+
+	/**
+	 * The facade delegates to a {@link StubTable} instead of an embedded
+	 * Mockito instance
+	 * 
+	 * @param useStubTable
+	 */
+	public void setUseStubTable(boolean useStubTable) {
+		this.useStubTable = useStubTable;
+	}
+
+	/**
+	 * @return the maximum number of recorded invocations; 0 if unbounded
+	 */
+	public int getInvocationHistoryLimit() {
+		return invocationHistoryLimit;
+	}
+
+	/**
+	 * The embedded Mockito instance records at most the given number of
+	 * invocations
+	 * 
+	 * @param invocationHistoryLimit
+	 *            0 records every invocation
+	 */
+	public void setInvocationHistoryLimit(int invocationHistoryLimit) {
+		this.invocationHistoryLimit = invocationHistoryLimit;
+	}
+
+	/**
+	 * @return the facade cache or null if caching is disabled
+	 */
+	public EjbMockerCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Facades are stored inside and loaded from the given cache by
+	 * {@link #createBytecode()}
+	 * 
+	 * @param cache
+	 *            null disables caching
+	 */
+	public void setCache(EjbMockerCache cache) {
+		this.cache = cache;
+	}
+
+	public List<String> getKeptMethods() {
+		return keptMethods;
+	}
+
+	/**
+	 * Methods with given name keep their original body
+	 * 
+	 * @param keptMethods
+	 */
+	public void setKeptMethods(List<String> keptMethods) {
+		this.keptMethods = keptMethods;
+	}
+
+	public boolean isCallRealMethodsWhenUnstubbed() {
+		return callRealMethodsWhenUnstubbed;
+	}
+
+	/**
+	 * Mocked methods call their original body if they have not been stubbed
+	 * 
+	 * @param callRealMethodsWhenUnstubbed
+	 */
+	public void setCallRealMethodsWhenUnstubbed(boolean callRealMethodsWhenUnstubbed) {
+		this.callRealMethodsWhenUnstubbed = callRealMethodsWhenUnstubbed;
+	}
+
+	/**
+	 * @return the compact JSON of the stub definitions or null
+	 */
+	public String getStubDefinitions() {
+		return stubDefinitions;
+	}
+
+	/**
+	 * The given {@link StubDefinitions} are compiled into the facade
+	 * 
+	 * @param stubDefinitions
+	 *            JSON object; null removes all definitions
+	 * @throws IllegalArgumentException
+	 *             if the JSON is malformed or too large
+	 */
+	public void setStubDefinitions(String stubDefinitions) {
+		if (stubDefinitions == null) {
+			this.stubDefinitions = null;
+			return;
+		}
+
+		String compact = Json.write(StubDefinitions.parse(stubDefinitions));
+
+		if (compact.length() > MAX_STUB_DEFINITIONS_LENGTH) {
+			throw new IllegalArgumentException("Stub definitions have " + compact.length()
+					+ " characters; at most " + MAX_STUB_DEFINITIONS_LENGTH + " are supported");
+		}
+
+		this.stubDefinitions = compact;
+	}
+
+	/**
+	 * @return true if the facade contains original method bodies and
+	 *         therefore the fields of the source EJB
+	 */
+	protected boolean isSpy() {
+		return !getKeptMethods().isEmpty() || isCallRealMethodsWhenUnstubbed();
 	}
 }
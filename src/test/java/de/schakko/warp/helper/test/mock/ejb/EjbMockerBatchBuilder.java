@@ -0,0 +1,484 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Logger;
+
+/**
+ * Fluent interface for creating the facades of a whole set of EJBs. All
+ * facades share one {@link BoundedClassPool}; every generated class is
+ * detached after its bytecode has been emitted and the pool is cleared if it
+ * grows beyond its limit. The options are the same as in
+ * {@link EjbMocker.EjbMockerBuilder} and are applied to every EJB.
+ *
+ * <pre>
+ * Map&lt;String, byte[]&gt; facades = EjbMockerBatchBuilder
+ * 		.create(&quot;this.is.my.EjbViewOnly&quot;, &quot;this.is.my.OtherEjb&quot;).suppressExceptions(true)
+ * 		.ignoreMethod(&quot;getRepository&quot;).stream();
+ * </pre>
+ *
+ * With {@link #parallel()} the EJBs are split into one chunk per worker of a
+ * {@link ForkJoinPool}. Every chunk gets its own class pool, so the workers
+ * never contend for Javassist's pool locks. The generated bytecode is the
+ * same as in sequential mode.
+ *
+ * @author ckl
+ *
+ */
+public class EjbMockerBatchBuilder {
+	private static final Logger log = Logger.getLogger(EjbMockerBatchBuilder.class.getName());
+
+	/**
+	 * Names of the source EJBs
+	 */
+	private final List<String> sourceClazzes;
+
+	/**
+	 * Holds the options for every facade
+	 */
+	private final EjbMocker template = new EjbMocker(null, null);
+
+	/**
+	 * JSON of the {@link StubDefinitions} by name of the source EJB
+	 */
+	private final Map<String, String> stubDefinitions = new HashMap<String, String>();
+
+	/**
+	 * Directory with a JSON file of {@link StubDefinitions} per EJB; null if
+	 * not set
+	 */
+	private File stubDefinitionsDirectory;
+
+	private int maxPoolSize = BoundedClassPool.DEFAULT_MAX_SIZE;
+
+	private int peakPoolSize = 0;
+
+	/**
+	 * Number of worker threads; 1 generates the facades sequentially
+	 */
+	private int parallelism = 1;
+
+	/**
+	 * Creates a new batch builder
+	 *
+	 * @param sourceClazzes
+	 *            names of EJB source classes
+	 * @return
+	 */
+	public static EjbMockerBatchBuilder create(String... sourceClazzes) {
+		return new EjbMockerBatchBuilder(Arrays.asList(sourceClazzes));
+	}
+
+	/**
+	 * Creates a new batch builder
+	 *
+	 * @param sourceClazzes
+	 *            names of EJB source classes
+	 * @return
+	 */
+	public static EjbMockerBatchBuilder create(Collection<String> sourceClazzes) {
+		return new EjbMockerBatchBuilder(sourceClazzes);
+	}
+
+	public EjbMockerBatchBuilder(Collection<String> sourceClazzes) {
+		this.sourceClazzes = new ArrayList<String>(sourceClazzes);
+		template.setCache(EjbMockerCache.getDefault());
+	}
+
+	/**
+	 * Suppress exceptions of source methods
+	 *
+	 * @param suppress
+	 * @return
+	 */
+	public EjbMockerBatchBuilder suppressExceptions(boolean suppress) {
+		template.setSuppressExceptions(suppress);
+		return this;
+	}
+
+	/**
+	 * Switches between the use of javax.ejb.Stateful and
+	 * javax.ejb.Singleton/javax.ejb.Startup
+	 *
+	 * @param useStatefulAnnotation
+	 * @return
+	 */
+	public EjbMockerBatchBuilder useStatefulAnnotation(boolean useStatefulAnnotation) {
+		template.setUseSingletonInsteadOfStateful(!useStatefulAnnotation);
+		return this;
+	}
+
+	/**
+	 * Sets the EJB type of every facade
+	 *
+	 * @param facadeType
+	 * @return
+	 */
+	public EjbMockerBatchBuilder facadeType(FacadeType facadeType) {
+		template.setFacadeType(facadeType);
+		return this;
+	}
+
+	/**
+	 * Ignore method with given name in every EJB
+	 *
+	 * @param method
+	 * @return
+	 */
+	public EjbMockerBatchBuilder ignoreMethod(String method) {
+		template.getIgnoreMethods().add(method);
+		return this;
+	}
+
+	/**
+	 * Creates the embedded mock inside the constructor of every facade
+	 *
+	 * @param eager
+	 * @return
+	 */
+	public EjbMockerBatchBuilder eagerMockInitialization(boolean eager) {
+		template.setEagerMockInitialization(eager);
+		return this;
+	}
+
+	/**
+	 * Sets the concurrency of every javax.ejb.Singleton facade
+	 *
+	 * @param concurrency
+	 * @return
+	 */
+	public EjbMockerBatchBuilder concurrency(FacadeConcurrency concurrency) {
+		template.setConcurrency(concurrency);
+		return this;
+	}
+
+	/**
+	 * Annotates the method with given name in every EJB with
+	 * javax.ejb.Lock(READ)
+	 *
+	 * @param method
+	 * @return
+	 */
+	public EjbMockerBatchBuilder readLockMethod(String method) {
+		template.getReadLockMethods().add(method);
+		return this;
+	}
+
+	/**
+	 * Every facade delegates to a {@link StubTable} instead of an embedded
+	 * Mockito instance
+	 *
+	 * @param useStubTable
+	 * @return
+	 */
+	public EjbMockerBatchBuilder useStubTable(boolean useStubTable) {
+		template.setUseStubTable(useStubTable);
+		return this;
+	}
+
+	/**
+	 * Caps the invocations recorded by every embedded Mockito instance
+	 *
+	 * @param limit
+	 *            0 records every invocation
+	 * @return
+	 */
+	public EjbMockerBatchBuilder invocationHistoryLimit(int limit) {
+		template.setInvocationHistoryLimit(limit);
+		return this;
+	}
+
+	/**
+	 * Keeps the original body of the method with given name in every EJB
+	 * 
+	 * @param method
+	 * @return
+	 */
+	public EjbMockerBatchBuilder keepOriginalMethod(String method) {
+		template.getKeptMethods().add(method);
+		return this;
+	}
+
+	/**
+	 * Every mocked method calls its original body if it has not been stubbed
+	 * 
+	 * @param callRealMethods
+	 * @return
+	 */
+	public EjbMockerBatchBuilder callRealMethodsWhenUnstubbed(boolean callRealMethods) {
+		template.setCallRealMethodsWhenUnstubbed(callRealMethods);
+		return this;
+	}
+
+	/**
+	 * Compiles the given {@link StubDefinitions} into the facade of the given
+	 * EJB
+	 * 
+	 * @param sourceClazz
+	 * @param json
+	 * @return
+	 */
+	public EjbMockerBatchBuilder stubDefinitions(String sourceClazz, String json) {
+		stubDefinitions.put(sourceClazz, json);
+		return this;
+	}
+
+	/**
+	 * Compiles the {@link StubDefinitions} of every EJB which has a file
+	 * named after its simple class name, e.g. "UserService.json", inside the
+	 * given directory into its facade. The files are read while the facades
+	 * are created; definitions given by
+	 * {@link #stubDefinitions(String, String)} take precedence.
+	 * 
+	 * @param directory
+	 * @return
+	 */
+	public EjbMockerBatchBuilder stubDefinitions(File directory) {
+		this.stubDefinitionsDirectory = directory;
+		return this;
+	}
+
+	/**
+	 * Enables or disables the on-disk facade cache
+	 *
+	 * @param useCache
+	 * @return
+	 */
+	public EjbMockerBatchBuilder useCache(boolean useCache) {
+		template.setCache(useCache ? EjbMockerCache.getDefault() : null);
+		return this;
+	}
+
+	/**
+	 * Uses the given facade cache; null disables caching
+	 *
+	 * @param cache
+	 * @return
+	 */
+	public EjbMockerBatchBuilder cache(EjbMockerCache cache) {
+		template.setCache(cache);
+		return this;
+	}
+
+	/**
+	 * Number of cached classes before the shared class pool is cleared
+	 *
+	 * @param maxPoolSize
+	 * @return
+	 */
+	public EjbMockerBatchBuilder maxPoolSize(int maxPoolSize) {
+		this.maxPoolSize = maxPoolSize;
+		return this;
+	}
+
+	/**
+	 * Generates the facades with one worker per available processor
+	 *
+	 * @return
+	 */
+	public EjbMockerBatchBuilder parallel() {
+		return parallelism(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Generates the facades with the given number of workers
+	 *
+	 * @param parallelism
+	 *            1 generates the facades sequentially
+	 * @return
+	 */
+	public EjbMockerBatchBuilder parallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1 but was " + parallelism);
+		}
+
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * Creates the byte streams of all EJB facades. Facades which keep or call
+	 * original method bodies are followed by the nested classes of their EJB.
+	 *
+	 * @return bytecode by class name in the order of the given EJBs
+	 * @throws Exception
+	 */
+	public Map<String, byte[]> stream() throws Exception {
+		int workers = Math.min(parallelism, sourceClazzes.size());
+
+		if (workers <= 1) {
+			BoundedClassPool pool = new BoundedClassPool(maxPoolSize);
+			Map<String, byte[]> r = stream(sourceClazzes, pool);
+			peakPoolSize = pool.getPeakSize();
+
+			log.info("Created " + r.size() + " classes; peak class pool size was " + peakPoolSize);
+
+			return r;
+		}
+
+		// the chunks are fixed up front, so every chunk can use its own pool
+		int chunkSize = (sourceClazzes.size() + workers - 1) / workers;
+		List<ChunkTask> chunks = new ArrayList<ChunkTask>();
+
+		for (int i = 0; i < sourceClazzes.size(); i += chunkSize) {
+			List<String> chunk = sourceClazzes.subList(i, Math.min(i + chunkSize, sourceClazzes.size()));
+			chunks.add(new ChunkTask(chunk, new BoundedClassPool(maxPoolSize)));
+		}
+
+		ForkJoinPool forkJoinPool = new ForkJoinPool(workers);
+		Map<String, byte[]> r = new LinkedHashMap<String, byte[]>();
+		int peak = 0;
+
+		try {
+			forkJoinPool.invoke(new BatchTask(chunks));
+
+			// chunks are in the order of the source classes
+			for (ChunkTask chunk : chunks) {
+				r.putAll(chunk.join());
+				peak += chunk.pool.getPeakSize();
+			}
+		} finally {
+			forkJoinPool.shutdown();
+		}
+
+		peakPoolSize = peak;
+		log.info("Created " + r.size() + " classes with " + workers + " workers; peak class pool size was "
+				+ peakPoolSize);
+
+		return r;
+	}
+
+	/**
+	 * Creates the byte streams of the given EJBs inside the given pool
+	 *
+	 * @param sourceClazzes
+	 * @param pool
+	 * @return
+	 * @throws Exception
+	 */
+	protected Map<String, byte[]> stream(List<String> sourceClazzes, BoundedClassPool pool) throws Exception {
+		Map<String, byte[]> r = new LinkedHashMap<String, byte[]>();
+
+		for (String sourceClazz : sourceClazzes) {
+			r.putAll(stream(sourceClazz, pool));
+		}
+
+		return r;
+	}
+
+	/**
+	 * Creates the byte stream of a single facade inside the given pool
+	 *
+	 * @param sourceClazz
+	 * @param pool
+	 * @return the facade and, for spy facades, the nested classes of the EJB
+	 * @throws Exception
+	 */
+	protected Map<String, byte[]> stream(String sourceClazz, BoundedClassPool pool) throws Exception {
+		return createMocker(sourceClazz, pool).createBytecodeWithNestedClasses();
+	}
+
+	/**
+	 * Creates a new {@link EjbMocker} with the options of this builder
+	 *
+	 * @param sourceClazz
+	 * @param pool
+	 * @return
+	 * @throws IOException
+	 *             if the file with the stub definitions can not be read
+	 */
+	protected EjbMocker createMocker(String sourceClazz, BoundedClassPool pool) throws IOException {
+		EjbMocker r = new EjbMocker(sourceClazz, pool);
+		template.copyOptionsTo(r);
+		r.setStubDefinitions(findStubDefinitions(sourceClazz));
+
+		return r;
+	}
+
+	/**
+	 * @param sourceClazz
+	 * @return the JSON of the {@link StubDefinitions} of the given EJB or null
+	 * @throws IOException
+	 */
+	protected String findStubDefinitions(String sourceClazz) throws IOException {
+		String r = stubDefinitions.get(sourceClazz);
+
+		if (r != null || stubDefinitionsDirectory == null) {
+			return r;
+		}
+
+		File file = new File(stubDefinitionsDirectory, sourceClazz.substring(sourceClazz.lastIndexOf('.') + 1)
+				+ ".json");
+
+		return file.isFile() ? EjbMocker.readStubDefinitions(file) : null;
+	}
+
+	/**
+	 * @return the names of the source EJBs
+	 */
+	public List<String> getSourceClazzes() {
+		return sourceClazzes;
+	}
+
+	/**
+	 * @return the peak number of cached classes inside the shared pool
+	 *         during the last {@link #stream()}. In parallel mode this is the
+	 *         sum of the peaks of all worker pools.
+	 */
+	public int getPeakPoolSize() {
+		return peakPoolSize;
+	}
+
+	/**
+	 * Forks one {@link ChunkTask} per chunk and waits for all of them
+	 */
+	private static class BatchTask extends RecursiveTask<Void> {
+		private static final long serialVersionUID = 1L;
+
+		private final List<ChunkTask> chunks;
+
+		BatchTask(List<ChunkTask> chunks) {
+			this.chunks = chunks;
+		}
+
+		@Override
+		protected Void compute() {
+			invokeAll(chunks);
+			return null;
+		}
+	}
+
+	/**
+	 * Generates the facades of one chunk inside the pool of the chunk
+	 */
+	private class ChunkTask extends RecursiveTask<Map<String, byte[]>> {
+		private static final long serialVersionUID = 1L;
+
+		private final List<String> sourceClazzes;
+
+		private final BoundedClassPool pool;
+
+		ChunkTask(List<String> sourceClazzes, BoundedClassPool pool) {
+			this.sourceClazzes = sourceClazzes;
+			this.pool = pool;
+		}
+
+		@Override
+		protected Map<String, byte[]> compute() {
+			try {
+				return stream(sourceClazzes, pool);
+			} catch (Exception e) {
+				throw new RuntimeException("Unable to create facades for " + sourceClazzes, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javassist.NotFoundException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs without any container; the EJBs are only read as class files and are
+ * never loaded.
+ * 
+ * @author ckl
+ * 
+ */
+public class EjbMockerBatchBuilderTest {
+	/**
+	 * Class names must not be resolved by YourClass.class.getName(), otherwise
+	 * the classes would be loaded
+	 */
+	private final static List<String> SOURCE_CLAZZES = Arrays.asList("de.schakko.warp.business.boundary.UserService",
+			"de.schakko.warp.business.control.UserRepository", "de.schakko.warp.business.entity.User",
+			"de.schakko.warp.presentation.controller.UserController");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void parallel_generation_creates_byte_identical_facades() throws Exception {
+		Map<String, byte[]> sequential = EjbMockerBatchBuilder.create(SOURCE_CLAZZES).suppressExceptions(true)
+				.useCache(false).stream();
+		Map<String, byte[]> parallel = EjbMockerBatchBuilder.create(SOURCE_CLAZZES).suppressExceptions(true)
+				.useCache(false).parallelism(SOURCE_CLAZZES.size()).stream();
+
+		assertEquals(SOURCE_CLAZZES, Arrays.asList(sequential.keySet().toArray()));
+		assertEquals(SOURCE_CLAZZES, Arrays.asList(parallel.keySet().toArray()));
+
+		for (String sourceClazz : SOURCE_CLAZZES) {
+			assertArrayEquals("Facade of " + sourceClazz + " differs", sequential.get(sourceClazz),
+					parallel.get(sourceClazz));
+		}
+	}
+
+	@Test
+	public void batch_generation_creates_same_facades_as_builder() throws Exception {
+		Map<String, byte[]> batch = EjbMockerBatchBuilder.create(SOURCE_CLAZZES).useCache(false).stream();
+
+		for (String sourceClazz : SOURCE_CLAZZES) {
+			byte[] single = EjbMocker.EjbMockerBuilder.create(sourceClazz).useCache(false).stream();
+			assertArrayEquals("Facade of " + sourceClazz + " differs", single, batch.get(sourceClazz));
+		}
+	}
+
+	@Test
+	public void missing_ejb_is_reported_by_name() throws Exception {
+		try {
+			EjbMocker.EjbMockerBuilder.create("de.schakko.warp.business.boundary.MissingService").stream();
+			fail("Missing EJB must be reported");
+		} catch (NotFoundException e) {
+			assertTrue(e.getMessage().contains("de.schakko.warp.business.boundary.MissingService"));
+		}
+	}
+
+	@Test
+	public void stub_definitions_of_directory_are_resolved_while_streaming() throws Exception {
+		String json = "{ \"findFirstUser\": null }";
+		EjbMockerBatchBuilder builder = EjbMockerBatchBuilder.create(SOURCE_CLAZZES).suppressExceptions(true)
+				.useCache(false).stubDefinitions(folder.getRoot());
+
+		// the file is created after the directory has been passed
+		OutputStream os = new FileOutputStream(new File(folder.getRoot(), "UserService.json"));
+
+		try {
+			os.write(json.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+
+		byte[] single = EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZES.get(0)).suppressExceptions(true)
+				.useCache(false).stubDefinitions(json).stream();
+		assertArrayEquals(single, builder.stream().get(SOURCE_CLAZZES.get(0)));
+	}
+
+	@Test
+	public void shared_pool_is_pruned_after_facade_has_been_emitted() throws Exception {
+		BoundedClassPool pool = new BoundedClassPool(1);
+		new EjbMocker(SOURCE_CLAZZES.get(0), pool).createBytecode();
+
+		assertTrue(pool.getPeakSize() > 1);
+		assertEquals(0, pool.getSize());
+	}
+}
@@ -0,0 +1,167 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.logging.Logger;
+
+/**
+ * Content-addressed on-disk cache for the bytecode of generated EJB facades.
+ * The key of every entry is a hash of the source EJB class file and of all
+ * options which influence the generated facade (see
+ * {@link EjbMocker#createCacheKey()}). As long as neither the EJB nor the
+ * options change, the Javassist pipeline does not have to be executed again.
+ *
+ * Entries are written to a temporary file first and renamed afterwards, so
+ * concurrent test JVMs or generator threads never see half-written facades.
+ *
+ * @author ckl
+ *
+ */
+public class EjbMockerCache {
+	private static final Logger log = Logger.getLogger(EjbMockerCache.class.getName());
+
+	/**
+	 * Default location of the cache; it is removed by mvn clean
+	 */
+	public final static String DEFAULT_CACHE_DIRECTORY = "target/ejb-mocker-cache";
+
+	/**
+	 * File extension of cached facades
+	 */
+	public final static String ENTRY_SUFFIX = ".class";
+
+	private final static EjbMockerCache DEFAULT = new EjbMockerCache(new File(DEFAULT_CACHE_DIRECTORY));
+
+	private final File directory;
+
+	/**
+	 * @param directory
+	 *            directory for the cached facades; it is created on the first
+	 *            write
+	 */
+	public EjbMockerCache(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the cache inside {@value #DEFAULT_CACHE_DIRECTORY}
+	 */
+	public static EjbMockerCache getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Returns the cached bytecode for the given key
+	 *
+	 * @param key
+	 * @return null if there is no entry for the given key
+	 * @throws IOException
+	 */
+	public byte[] get(String key) throws IOException {
+		File entry = getEntry(key);
+
+		if (!entry.isFile()) {
+			return null;
+		}
+
+		log.fine("Cache hit for facade " + key);
+
+		return readFully(new FileInputStream(entry));
+	}
+
+	/**
+	 * Stores the bytecode for the given key
+	 *
+	 * @param key
+	 * @param bytecode
+	 * @throws IOException
+	 */
+	public void put(String key, byte[] bytecode) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+			throw new IOException("Unable to create cache directory " + directory.getAbsolutePath());
+		}
+
+		File entry = getEntry(key);
+		File tmp = File.createTempFile(key, ".tmp", directory);
+
+		OutputStream os = new FileOutputStream(tmp);
+
+		try {
+			os.write(bytecode);
+		} finally {
+			os.close();
+		}
+
+		// another thread may have stored the same facade in the meantime;
+		// the content is identical, so losing the rename is fine
+		if (!tmp.renameTo(entry)) {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * @return the cache directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	protected File getEntry(String key) {
+		return new File(directory, key + ENTRY_SUFFIX);
+	}
+
+	/**
+	 * Creates the hex encoded SHA-1 hash of all given parts
+	 *
+	 * @param parts
+	 * @return
+	 * @throws Exception
+	 */
+	public static String hash(byte[]... parts) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-1");
+
+		for (byte[] part : parts) {
+			digest.update(part);
+			// separator, so ["ab", "c"] and ["a", "bc"] differ
+			digest.update((byte) 0);
+		}
+
+		StringBuilder sb = new StringBuilder();
+
+		for (byte b : digest.digest()) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Reads and closes the given stream
+	 *
+	 * @param is
+	 * @return
+	 * @throws IOException
+	 */
+	public static byte[] readFully(InputStream is) throws IOException {
+		try {
+			ByteArrayOutputStream r = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+
+			while ((read = is.read(buffer)) != -1) {
+				r.write(buffer, 0, read);
+			}
+
+			return r.toByteArray();
+		} finally {
+			is.close();
+		}
+	}
+}
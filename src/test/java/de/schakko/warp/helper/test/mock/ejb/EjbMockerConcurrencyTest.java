@@ -0,0 +1,109 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import de.schakko.warp.business.entity.User;
+
+/**
+ * Hammers a facade with eager mock initialization from multiple threads. The
+ * facade is loaded by a {@link FacadeClassLoader}, so the real UserService
+ * is never touched; its methods are called by reflection.
+ * 
+ * @author ckl
+ * 
+ */
+public class EjbMockerConcurrencyTest {
+	private final static String SOURCE_CLAZZ = "de.schakko.warp.business.boundary.UserService";
+
+	private final static int THREADS = 16;
+
+	private final static int CALLS_PER_THREAD = 10000;
+
+	private Class<?> loadFacade() throws Exception {
+		byte[] bytecode = EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).suppressExceptions(true)
+				.eagerMockInitialization(true).useCache(false).stream();
+		return FacadeClassLoader.loadFacade(SOURCE_CLAZZ, bytecode);
+	}
+
+	@Test
+	public void concurrent_first_calls_see_the_same_embedded_mock() throws Exception {
+		final Object facade = loadFacade().newInstance();
+		final Set<Object> mocks = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+		runConcurrently(new Callable<Void>() {
+			public Void call() throws Exception {
+				mocks.add(EjbMockerUtil.getEmbeddedMock(facade, Object.class));
+				return null;
+			}
+		});
+
+		assertEquals(1, mocks.size());
+	}
+
+	@Test
+	public void stubbing_is_visible_to_every_thread() throws Exception {
+		Class<?> facadeClazz = loadFacade();
+		final Object facade = facadeClazz.newInstance();
+		final Method findUsers = facadeClazz.getMethod("findUsers");
+
+		final List<User> expected = new ArrayList<User>();
+		expected.add(new User(1, "concurrent"));
+
+		Object embeddedMock = EjbMockerUtil.getEmbeddedMock(facade, Object.class);
+		when(findUsers.invoke(embeddedMock)).thenReturn(expected);
+
+		runConcurrently(new Callable<Void>() {
+			public Void call() throws Exception {
+				for (int i = 0; i < CALLS_PER_THREAD; i++) {
+					assertSame(expected, findUsers.invoke(facade));
+				}
+
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Starts the given task in {@value #THREADS} threads at the same time and
+	 * rethrows the first failure
+	 */
+	private void runConcurrently(final Callable<Void> task) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+
+		try {
+			for (int i = 0; i < THREADS; i++) {
+				results.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						start.await();
+						return task.call();
+					}
+				}));
+			}
+
+			start.countDown();
+
+			for (Future<Void> result : results) {
+				result.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Every facade option must be part of the cache key and must be copied to
+ * the mockers of a batch
+ * 
+ * @author ckl
+ * 
+ */
+public class EjbMockerOptionsTest {
+	private final static String SOURCE_CLAZZ = "de.schakko.warp.business.boundary.UserService";
+
+	@Test
+	public void every_option_changes_the_description() throws Exception {
+		String defaults = new EjbMocker(SOURCE_CLAZZ).describeOptions();
+
+		for (Field field : EjbMocker.getOptionFields()) {
+			EjbMocker mocker = new EjbMocker(SOURCE_CLAZZ);
+			change(mocker, field);
+
+			assertFalse("Option " + field.getName() + " is not described", defaults.equals(mocker.describeOptions()));
+			assertTrue(mocker.describeOptions().contains(";" + field.getName() + "="));
+		}
+	}
+
+	@Test
+	public void every_option_is_copied() throws Exception {
+		for (Field field : EjbMocker.getOptionFields()) {
+			EjbMocker mocker = new EjbMocker(SOURCE_CLAZZ);
+			change(mocker, field);
+
+			EjbMocker copy = new EjbMocker(SOURCE_CLAZZ);
+			mocker.copyOptionsTo(copy);
+
+			assertEquals("Option " + field.getName() + " is not copied", mocker.describeOptions(),
+					copy.describeOptions());
+		}
+	}
+
+	@Test
+	public void only_infrastructure_is_excluded() throws Exception {
+		// a new field must not be hidden from the cache key by accident
+		assertEquals(Arrays.asList("sourceClazz", "cp", "cache"), EjbMocker.NON_OPTION_FIELDS);
+	}
+
+	@Test
+	public void order_of_methods_does_not_matter() throws Exception {
+		EjbMocker mocker = new EjbMocker(SOURCE_CLAZZ);
+		mocker.getIgnoreMethods().add("b");
+		mocker.getIgnoreMethods().add("a");
+
+		EjbMocker other = new EjbMocker(SOURCE_CLAZZ);
+		other.getIgnoreMethods().add("a");
+		other.getIgnoreMethods().add("b");
+
+		assertEquals(mocker.describeOptions(), other.describeOptions());
+	}
+
+	/**
+	 * Sets the given option to a value which differs from its default
+	 * 
+	 * @param mocker
+	 * @param field
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	private void change(EjbMocker mocker, Field field) throws Exception {
+		field.setAccessible(true);
+		Object value = field.get(mocker);
+		Class<?> type = field.getType();
+
+		if (type == boolean.class) {
+			field.set(mocker, !((Boolean) value));
+		} else if (type == int.class) {
+			field.set(mocker, ((Integer) value) + 1);
+		} else if (type == String.class) {
+			field.set(mocker, value + "{}");
+		} else if (type.isEnum()) {
+			Object[] constants = type.getEnumConstants();
+			field.set(mocker, constants[0] == value ? constants[1] : constants[0]);
+		} else if (List.class.isAssignableFrom(type)) {
+			((List<String>) value).add("findUsers");
+		} else {
+			fail("Option " + field.getName() + " of type " + type + " is not supported by this test");
+		}
+	}
+}
@@ -1,6 +1,11 @@
 package de.schakko.warp.helper.test.mock.ejb;
 
-import java.lang.reflect.Method;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+
+import org.mockito.Mockito;
 
 public class EjbMockerUtil {
 	/**
@@ -15,6 +20,78 @@ public class EjbMockerUtil {
 	 */
 	public final static String MOCK_ACCESSOR = "__getMock__";
 
+	/**
+	 * Name of the static field in the enriched EJB which contains the
+	 * {@link StubTable}
+	 */
+	public final static String TARGET_FIELD_STUBS = "__stubs__";
+
+	/**
+	 * Name of method to access the {@link StubTable} of facades which have
+	 * been created without an embedded Mockito instance
+	 */
+	public final static String STUB_ACCESSOR = "__getStubs__";
+
+	/**
+	 * Name of the field in the enriched EJB which contains the
+	 * {@link InvocationHistory} of the embedded mock
+	 */
+	public final static String TARGET_FIELD_HISTORY = "__history__";
+
+	/**
+	 * Name of method to access the {@link InvocationHistory} of facades with a
+	 * bounded invocation history
+	 */
+	public final static String HISTORY_ACCESSOR = "__getHistory__";
+
+	/**
+	 * Name of method which stubs facades with compiled {@link StubDefinitions}
+	 * again
+	 */
+	public final static String STUB_DEFINITIONS_ACCESSOR = "__applyStubDefinitions__";
+
+	/**
+	 * Resolved {@value #MOCK_ACCESSOR} methods by facade (or container proxy)
+	 * class. The handles have the type (Object)Object so they can be invoked
+	 * exactly without any reflection or boxing of arguments.
+	 */
+	private final static ClassValue<MethodHandle> MOCK_ACCESSORS = createAccessorCache(MOCK_ACCESSOR);
+
+	/**
+	 * Resolved {@value #STUB_ACCESSOR} methods by facade (or container proxy)
+	 * class
+	 */
+	private final static ClassValue<MethodHandle> STUB_ACCESSORS = createAccessorCache(STUB_ACCESSOR);
+
+	/**
+	 * Resolved {@value #HISTORY_ACCESSOR} methods by facade (or container
+	 * proxy) class
+	 */
+	private final static ClassValue<MethodHandle> HISTORY_ACCESSORS = createAccessorCache(HISTORY_ACCESSOR);
+
+	/**
+	 * Resolved {@value #STUB_DEFINITIONS_ACCESSOR} methods by facade (or
+	 * container proxy) class
+	 */
+	private final static ClassValue<MethodHandle> STUB_DEFINITIONS_ACCESSORS = createAccessorCache(
+			STUB_DEFINITIONS_ACCESSOR);
+
+	private static ClassValue<MethodHandle> createAccessorCache(final String accessor) {
+		return new ClassValue<MethodHandle>() {
+			@Override
+			protected MethodHandle computeValue(Class<?> type) {
+				try {
+					return MethodHandles.publicLookup()
+							.findVirtual(type, accessor, MethodType.methodType(Object.class))
+							.asType(MethodType.methodType(Object.class, Object.class));
+				} catch (Exception e) {
+					// failures are not cached by ClassValue
+					throw new IllegalArgumentException(e);
+				}
+			}
+		};
+	}
+
 	/**
 	 * Returns the embedded Mockito instance from the facade. This mehod is
 	 * needed because we can not work with interface methods.
@@ -34,13 +111,148 @@ public class EjbMockerUtil {
 		Object embeddedMock;
 
 		try {
-			Method getMock = anyMockedEjb.getClass().getMethod(MOCK_ACCESSOR);
-			embeddedMock = getMock.invoke(anyMockedEjb);
-		} catch (Exception e) {
+			MethodHandle getMock = MOCK_ACCESSORS.get(anyMockedEjb.getClass());
+			embeddedMock = (Object) getMock.invokeExact(anyMockedEjb);
+		} catch (Throwable e) {
 			throw new Exception("Unable to invoke " + MOCK_ACCESSOR + "() on " + anyMockedEjb
 					+ ". Has the object been enriched?", e);
 		}
 
 		return (T) embeddedMock;
 	}
+
+	/**
+	 * Returns the {@link StubTable} of a facade which has been created with
+	 * EjbMockerBuilder.useStubTable(true)
+	 * 
+	 * @param anyStubbedEjb
+	 *            the EJB which has been enriched
+	 * @return
+	 * @throws Exception
+	 *             should only occur if anyStubbedEjb has not been enriched by
+	 *             us or uses an embedded Mockito instance
+	 */
+	public static StubTable getStubTable(Object anyStubbedEjb) throws Exception {
+		assert anyStubbedEjb != null;
+
+		try {
+			MethodHandle getStubs = STUB_ACCESSORS.get(anyStubbedEjb.getClass());
+			return (StubTable) (Object) getStubs.invokeExact(anyStubbedEjb);
+		} catch (Throwable e) {
+			throw new Exception("Unable to invoke " + STUB_ACCESSOR + "() on " + anyStubbedEjb
+					+ ". Has the object been enriched with a stub table?", e);
+		}
+	}
+
+	/**
+	 * Returns the {@link InvocationHistory} of a facade which has been created
+	 * with EjbMockerBuilder.invocationHistoryLimit(int)
+	 * 
+	 * @param anyMockedEjb
+	 *            the EJB which has been enriched
+	 * @return
+	 * @throws Exception
+	 *             should only occur if anyMockedEjb has not been enriched by us
+	 *             or its invocation history is not bounded
+	 */
+	public static InvocationHistory getInvocationHistory(Object anyMockedEjb) throws Exception {
+		assert anyMockedEjb != null;
+
+		try {
+			MethodHandle getHistory = HISTORY_ACCESSORS.get(anyMockedEjb.getClass());
+			return (InvocationHistory) (Object) getHistory.invokeExact(anyMockedEjb);
+		} catch (Throwable e) {
+			throw new Exception("Unable to invoke " + HISTORY_ACCESSOR + "() on " + anyMockedEjb
+					+ ". Has the object been enriched with a bounded invocation history?", e);
+		}
+	}
+
+	/**
+	 * Resets the facade to its freshly deployed state: all stubbings and
+	 * recorded invocations are removed and the {@link StubDefinitions}
+	 * compiled into the facade are applied again. Use this between tests
+	 * which share one deployment.
+	 * 
+	 * @param anyEnrichedEjb
+	 *            the EJB which has been enriched
+	 * @throws Exception
+	 *             should only occur if anyEnrichedEjb has not been enriched by
+	 *             us
+	 */
+	public static void reset(Object anyEnrichedEjb) throws Exception {
+		assert anyEnrichedEjb != null;
+
+		Class<?> type = anyEnrichedEjb.getClass();
+
+		if (hasAccessor(type, STUB_ACCESSOR)) {
+			getStubTable(anyEnrichedEjb).reset();
+		} else {
+			Object mock = getEmbeddedMock(anyEnrichedEjb, Object.class);
+			Mockito.reset(mock);
+
+			// the reset mock records into a new invocation list
+			if (hasAccessor(type, HISTORY_ACCESSOR)) {
+				getInvocationHistory(anyEnrichedEjb).rebind(mock);
+			}
+		}
+
+		if (hasAccessor(type, STUB_DEFINITIONS_ACCESSOR)) {
+			try {
+				STUB_DEFINITIONS_ACCESSORS.get(type).invoke(anyEnrichedEjb);
+			} catch (Throwable e) {
+				throw new Exception("Unable to invoke " + STUB_DEFINITIONS_ACCESSOR + "() on " + anyEnrichedEjb, e);
+			}
+		}
+	}
+
+	/**
+	 * @param anyEnrichedEjb
+	 *            the EJB which has been enriched
+	 * @return true if the facade delegates to a {@link StubTable} instead of
+	 *         an embedded Mockito instance
+	 */
+	public static boolean hasStubTable(Object anyEnrichedEjb) {
+		return hasAccessor(anyEnrichedEjb.getClass(), STUB_ACCESSOR);
+	}
+
+	/**
+	 * Stubbing of facades with a {@link StubTable}, of stateless facades and of
+	 * singletons is seen by every caller. Every instance of a stateful facade
+	 * owns its embedded mock, so the stubbing of one instance is lost for all
+	 * other instances.
+	 * 
+	 * @param facadeClazz
+	 *            class of the facade
+	 * @return true if all instances of the facade share their stubbing
+	 */
+	public static boolean isStubbingShared(Class<?> facadeClazz) {
+		if (hasAccessor(facadeClazz, STUB_ACCESSOR)) {
+			return true;
+		}
+
+		try {
+			if (Modifier.isStatic(facadeClazz.getField(TARGET_FIELD_MOCK).getModifiers())) {
+				return true;
+			}
+		} catch (NoSuchFieldException e) {
+			return false;
+		}
+
+		for (java.lang.annotation.Annotation annotation : facadeClazz.getAnnotations()) {
+			if (annotation.annotationType().getName().equals("javax.ejb.Singleton")) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean hasAccessor(Class<?> type, String accessor) {
+		try {
+			type.getMethod(accessor);
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
 }
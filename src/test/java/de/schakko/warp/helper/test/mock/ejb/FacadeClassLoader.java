@@ -0,0 +1,120 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class loader which defines generated EJB facades itself and delegates every
+ * other class to its parent. This allows loading facades outside of a
+ * container even if the original EJB is available on the class path of the
+ * parent loader.
+ * 
+ * @author ckl
+ * 
+ */
+public class FacadeClassLoader extends ClassLoader {
+	static {
+		registerAsParallelCapable();
+	}
+
+	/**
+	 * Bytecode by class name
+	 */
+	private final Map<String, byte[]> facades;
+
+	/**
+	 * @param parent
+	 * @param facades
+	 *            bytecode of the generated facades by class name, e.g. the
+	 *            result of {@link EjbMockerBatchBuilder#stream()}
+	 */
+	public FacadeClassLoader(ClassLoader parent, Map<String, byte[]> facades) {
+		super(parent);
+		this.facades = new HashMap<String, byte[]>(facades);
+	}
+
+	/**
+	 * Defines the given facade inside a new loader whose parent is the loader
+	 * of this class
+	 * 
+	 * @param clazzName
+	 * @param bytecode
+	 * @return the facade class
+	 * @throws ClassNotFoundException
+	 */
+	public static Class<?> loadFacade(String clazzName, byte[] bytecode) throws ClassNotFoundException {
+		return loadFacade(clazzName, Collections.singletonMap(clazzName, bytecode));
+	}
+
+	/**
+	 * Defines the given facade together with further classes, e.g. the
+	 * nested classes of a spy facade, inside a new loader
+	 * 
+	 * @param clazzName
+	 * @param classes
+	 *            bytecode by class name including the facade
+	 * @return the facade class
+	 * @throws ClassNotFoundException
+	 */
+	public static Class<?> loadFacade(String clazzName, Map<String, byte[]> classes) throws ClassNotFoundException {
+		return new FacadeClassLoader(FacadeClassLoader.class.getClassLoader(), classes).loadClass(clazzName);
+	}
+
+	/**
+	 * Defines the given facade inside a new loader and creates an instance of
+	 * it, like the container would do
+	 * 
+	 * @param clazzName
+	 * @param bytecode
+	 * @return
+	 * @throws Exception
+	 */
+	public static Object newFacade(String clazzName, byte[] bytecode) throws Exception {
+		return loadFacade(clazzName, bytecode).newInstance();
+	}
+
+	/**
+	 * Defines the given facade together with further classes inside a new
+	 * loader and creates an instance of the facade
+	 * 
+	 * @param clazzName
+	 * @param classes
+	 *            bytecode by class name including the facade
+	 * @return
+	 * @throws Exception
+	 */
+	public static Object newFacade(String clazzName, Map<String, byte[]> classes) throws Exception {
+		return loadFacade(clazzName, classes).newInstance();
+	}
+
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+		if (!facades.containsKey(name)) {
+			return super.loadClass(name, resolve);
+		}
+
+		synchronized (getClassLoadingLock(name)) {
+			Class<?> r = findLoadedClass(name);
+
+			if (r == null) {
+				byte[] bytecode = facades.get(name);
+				r = defineClass(name, bytecode, 0, bytecode.length);
+			}
+
+			if (resolve) {
+				resolveClass(r);
+			}
+
+			return r;
+		}
+	}
+
+	/**
+	 * @param name
+	 * @return true if the given class is defined by this loader
+	 */
+	public boolean isFacade(String name) {
+		return facades.containsKey(name);
+	}
+}
@@ -0,0 +1,29 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+/**
+ * Concurrency of a javax.ejb.Singleton facade created by {@link EjbMocker}.
+ * Every mode except {@link #CONTAINER_WRITE} lets multiple threads enter the
+ * facade at the same time; the embedded mock is then always created eagerly
+ * (see {@link EjbMocker#setEagerMockInitialization(boolean)}).
+ * 
+ * @author ckl
+ * 
+ */
+public enum FacadeConcurrency {
+	/**
+	 * No annotation; the container applies a write lock to every method. This
+	 * is the EJB default.
+	 */
+	CONTAINER_WRITE,
+
+	/**
+	 * Container managed concurrency with javax.ejb.Lock(READ) on class level
+	 */
+	CONTAINER_READ,
+
+	/**
+	 * javax.ejb.ConcurrencyManagement(BEAN); the container does not lock at
+	 * all
+	 */
+	BEAN
+}
@@ -0,0 +1,82 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.annotation.Annotation;
+import javassist.bytecode.annotation.EnumMemberValue;
+
+import org.junit.Test;
+
+/**
+ * Container annotations of {@link FacadeConcurrency} and read lock methods
+ * inside the generated bytecode
+ * 
+ * @author ckl
+ * 
+ */
+public class FacadeConcurrencyTest {
+	private final static String SOURCE_CLAZZ = "de.schakko.warp.business.boundary.UserService";
+
+	private final static String LOCK = "javax.ejb.Lock";
+
+	private final static String CONCURRENCY_MANAGEMENT = "javax.ejb.ConcurrencyManagement";
+
+	@Test
+	public void bean_managed_concurrency_is_annotated_on_class_level() throws Exception {
+		ClassFile cf = createFacade(EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).facadeType(FacadeType.SINGLETON)
+				.concurrency(FacadeConcurrency.BEAN));
+
+		assertEnumValue("BEAN", getAnnotations(cf).getAnnotation(CONCURRENCY_MANAGEMENT), "value");
+		assertNull(getAnnotations(cf).getAnnotation(LOCK));
+	}
+
+	@Test
+	public void read_lock_is_annotated_on_class_and_method_level() throws Exception {
+		ClassFile cf = createFacade(EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).facadeType(FacadeType.SINGLETON)
+				.concurrency(FacadeConcurrency.CONTAINER_READ).readLockMethod("findUsers"));
+
+		assertEnumValue("READ", getAnnotations(cf).getAnnotation(LOCK), "value");
+		assertNull(getAnnotations(cf).getAnnotation(CONCURRENCY_MANAGEMENT));
+		assertEnumValue("READ", getAnnotations(cf.getMethod("findUsers").getAttribute(
+				AnnotationsAttribute.visibleTag)).getAnnotation(LOCK), "value");
+		assertNull(cf.getMethod("findFirstUser").getAttribute(AnnotationsAttribute.visibleTag));
+	}
+
+	@Test
+	public void concurrency_settings_of_other_facade_types_are_ignored() throws Exception {
+		for (FacadeType facadeType : new FacadeType[] { FacadeType.STATEFUL, FacadeType.STATELESS }) {
+			ClassFile cf = createFacade(EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).facadeType(facadeType)
+					.concurrency(FacadeConcurrency.BEAN).readLockMethod("findUsers"));
+
+			assertNull(getAnnotations(cf).getAnnotation(CONCURRENCY_MANAGEMENT));
+			assertNull(getAnnotations(cf).getAnnotation(LOCK));
+			assertNull(cf.getMethod("findUsers").getAttribute(AnnotationsAttribute.visibleTag));
+		}
+	}
+
+	private ClassFile createFacade(EjbMocker.EjbMockerBuilder builder) throws Exception {
+		byte[] bytecode = builder.suppressExceptions(true).useCache(false).stream();
+
+		return new ClassFile(new DataInputStream(new ByteArrayInputStream(bytecode)));
+	}
+
+	private AnnotationsAttribute getAnnotations(ClassFile cf) {
+		return getAnnotations(cf.getAttribute(AnnotationsAttribute.visibleTag));
+	}
+
+	private AnnotationsAttribute getAnnotations(Object attribute) {
+		assertNotNull(attribute);
+
+		return (AnnotationsAttribute) attribute;
+	}
+
+	private void assertEnumValue(String expected, Annotation annotation, String member) {
+		assertNotNull(annotation);
+		assertEquals(expected, ((EnumMemberValue) annotation.getMemberValue(member)).getValue());
+	}
+}
@@ -0,0 +1,28 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+/**
+ * EJB type of a facade created by {@link EjbMocker}
+ * 
+ * @author ckl
+ * 
+ */
+public enum FacadeType {
+	/**
+	 * javax.ejb.Singleton and javax.ejb.Startup; one facade instance with one
+	 * embedded mock. This is the default.
+	 */
+	SINGLETON,
+
+	/**
+	 * javax.ejb.Stateful; every facade instance has its own embedded mock
+	 */
+	STATEFUL,
+
+	/**
+	 * javax.ejb.Stateless; the container pools the facade instances like the
+	 * real EJB. All instances delegate to one embedded mock which is stored in
+	 * a static field of the facade, so stubbing any instance affects every
+	 * instance.
+	 */
+	STATELESS
+}
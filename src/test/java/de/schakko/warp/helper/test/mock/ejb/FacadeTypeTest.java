@@ -0,0 +1,53 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import de.schakko.warp.business.entity.User;
+
+/**
+ * Embedded mocks of the different {@link FacadeType}s
+ * 
+ * @author ckl
+ * 
+ */
+public class FacadeTypeTest {
+	private final static String SOURCE_CLAZZ = "de.schakko.warp.business.boundary.UserService";
+
+	@Test
+	public void pooled_stateless_instances_share_one_mock() throws Exception {
+		byte[] bytecode = EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).facadeType(FacadeType.STATELESS)
+				.suppressExceptions(true).useCache(false).stream();
+		Class<?> facadeClazz = FacadeClassLoader.loadFacade(SOURCE_CLAZZ, bytecode);
+
+		assertTrue(Modifier.isStatic(facadeClazz.getDeclaredField(EjbMockerUtil.TARGET_FIELD_MOCK).getModifiers()));
+
+		// two instances of the container's pool
+		Object first = facadeClazz.newInstance();
+		Object second = facadeClazz.newInstance();
+		Method findFirstUser = facadeClazz.getMethod("findFirstUser");
+
+		User stubbed = new User(42, "stubbed");
+		Mockito.when(findFirstUser.invoke(EjbMockerUtil.getEmbeddedMock(first, Object.class))).thenReturn(stubbed);
+
+		assertSame(stubbed, findFirstUser.invoke(second));
+		assertSame(EjbMockerUtil.getEmbeddedMock(first, Object.class), EjbMockerUtil.getEmbeddedMock(second,
+				Object.class));
+	}
+
+	@Test
+	public void stateful_instances_have_their_own_mock() throws Exception {
+		byte[] bytecode = EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).facadeType(FacadeType.STATEFUL)
+				.suppressExceptions(true).useCache(false).stream();
+		Class<?> facadeClazz = FacadeClassLoader.loadFacade(SOURCE_CLAZZ, bytecode);
+
+		assertFalse(Modifier.isStatic(facadeClazz.getDeclaredField(EjbMockerUtil.TARGET_FIELD_MOCK).getModifiers()));
+		assertNotSame(EjbMockerUtil.getEmbeddedMock(facadeClazz.newInstance(), Object.class), EjbMockerUtil
+				.getEmbeddedMock(facadeClazz.newInstance(), Object.class));
+	}
+}
@@ -0,0 +1,156 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mockito.internal.util.MockUtil;
+
+/**
+ * Caps the invocations recorded by an embedded Mockito instance. Mockito keeps
+ * every invocation for verification, so a facade which lives as long as the
+ * deployment would grow without limit. After each delegated call the facade
+ * drops the oldest invocations until at most {@link #getCapacity()} are left.
+ * Verifying recent calls still works; counting verifications like times(n)
+ * only see the retained invocations.
+ * 
+ * Mockito does not expose its invocation list, so it is resolved by
+ * reflection when the mock is created and again after each reset. This
+ * depends on the internals of Mockito 1.8.x which is deployed by the baseline
+ * WAR.
+ * 
+ * @author ckl
+ * 
+ */
+public class InvocationHistory {
+	private final int capacity;
+
+	/**
+	 * Live list of Mockito's registered invocations; it is a synchronized list
+	 * which is replaced by Mockito.reset()
+	 */
+	private volatile List<?> invocations;
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Called by the generated facade after the mock has been created
+	 * 
+	 * @param mock
+	 *            embedded Mockito instance
+	 * @param capacity
+	 *            maximum number of retained invocations
+	 */
+	public InvocationHistory(Object mock, int capacity) {
+		this.capacity = capacity;
+		this.invocations = resolveInvocations(mock);
+	}
+
+	/**
+	 * Called by the generated facade after each delegated call
+	 */
+	public void afterInvocation() {
+		List<?> invocations = this.invocations;
+
+		// cheap unsynchronized check for the common case
+		if (invocations.size() <= capacity) {
+			return;
+		}
+
+		synchronized (invocations) {
+			while (invocations.size() > capacity) {
+				invocations.remove(0);
+				dropped.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Drops every recorded invocation; stubbings are kept
+	 */
+	public void clear() {
+		List<?> invocations = this.invocations;
+
+		synchronized (invocations) {
+			dropped.addAndGet(invocations.size());
+			invocations.clear();
+		}
+	}
+
+	/**
+	 * Resolves the invocation list again. Mockito.reset() replaces the handler
+	 * of the mock and with it the list of recorded invocations; the
+	 * invocations of the old list are counted as dropped.
+	 * 
+	 * @param mock
+	 *            embedded Mockito instance after the reset
+	 */
+	public void rebind(Object mock) {
+		List<?> old = this.invocations;
+		this.invocations = resolveInvocations(mock);
+
+		synchronized (old) {
+			dropped.addAndGet(old.size());
+			old.clear();
+		}
+	}
+
+	/**
+	 * @return number of currently recorded invocations
+	 */
+	public int size() {
+		return invocations.size();
+	}
+
+	/**
+	 * @return number of invocations which have been dropped since the mock
+	 *         has been created
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return maximum number of retained invocations
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Resolves handler.getInvocationContainer().registeredInvocations.invocations
+	 * 
+	 * @param mock
+	 * @return
+	 */
+	protected static List<?> resolveInvocations(Object mock) {
+		try {
+			Object handler = new MockUtil().getMockHandler(mock);
+			Method getInvocationContainer = handler.getClass().getMethod("getInvocationContainer");
+			getInvocationContainer.setAccessible(true);
+			Object container = getInvocationContainer.invoke(handler);
+			Object registeredInvocations = readField(container, "registeredInvocations");
+
+			return (List<?>) readField(registeredInvocations, "invocations");
+		} catch (Exception e) {
+			throw new IllegalStateException("Unable to access the invocations of " + mock.getClass()
+					+ "; the bounded invocation history requires Mockito 1.8.x", e);
+		}
+	}
+
+	private static Object readField(Object target, String name) throws Exception {
+		for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+			try {
+				Field field = type.getDeclaredField(name);
+				field.setAccessible(true);
+
+				return field.get(target);
+			} catch (NoSuchFieldException e) {
+				// look inside super class
+			}
+		}
+
+		throw new NoSuchFieldException(name + " in " + target.getClass());
+	}
+}
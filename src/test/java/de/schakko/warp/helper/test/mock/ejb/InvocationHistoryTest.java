@@ -0,0 +1,85 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Guards the access to Mockito's internal invocation list
+ * 
+ * @author ckl
+ * 
+ */
+public class InvocationHistoryTest {
+	private final static String SOURCE_CLAZZ = "de.schakko.warp.business.boundary.UserService";
+
+	private final static int LIMIT = 5;
+
+	@Test
+	public void recorded_invocations_are_bounded() throws Exception {
+		byte[] bytecode = EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).suppressExceptions(true)
+				.invocationHistoryLimit(LIMIT).useCache(false).stream();
+		Object facade = FacadeClassLoader.newFacade(SOURCE_CLAZZ, bytecode);
+		Method findUsers = facade.getClass().getMethod("findUsers");
+
+		for (int i = 0; i < 20; i++) {
+			findUsers.invoke(facade);
+		}
+
+		InvocationHistory history = EjbMockerUtil.getInvocationHistory(facade);
+		assertEquals(LIMIT, history.size());
+		assertEquals(20 - LIMIT, history.getDroppedCount());
+
+		// recent calls can still be verified
+		Object embeddedMock = EjbMockerUtil.getEmbeddedMock(facade, Object.class);
+		findUsers.invoke(Mockito.verify(embeddedMock, Mockito.times(LIMIT)));
+	}
+
+	@Test
+	public void invocations_stay_bounded_after_reset() throws Exception {
+		byte[] bytecode = EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).suppressExceptions(true)
+				.invocationHistoryLimit(LIMIT).useCache(false).stream();
+		Object facade = FacadeClassLoader.newFacade(SOURCE_CLAZZ, bytecode);
+		Method findUsers = facade.getClass().getMethod("findUsers");
+
+		findUsers.invoke(facade);
+		EjbMockerUtil.reset(facade);
+
+		for (int i = 0; i < 20; i++) {
+			findUsers.invoke(facade);
+		}
+
+		InvocationHistory history = EjbMockerUtil.getInvocationHistory(facade);
+		assertTrue(history.size() <= history.getCapacity());
+		assertEquals(LIMIT, history.size());
+
+		Object embeddedMock = EjbMockerUtil.getEmbeddedMock(facade, Object.class);
+		findUsers.invoke(Mockito.verify(embeddedMock, Mockito.times(LIMIT)));
+	}
+
+	@Test
+	public void invocations_are_bounded_if_the_mock_throws() throws Exception {
+		byte[] bytecode = EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).suppressExceptions(true)
+				.invocationHistoryLimit(LIMIT).useCache(false).stream();
+		Object facade = FacadeClassLoader.newFacade(SOURCE_CLAZZ, bytecode);
+		Method findUsers = facade.getClass().getMethod("findUsers");
+
+		Object embeddedMock = EjbMockerUtil.getEmbeddedMock(facade, Object.class);
+		Mockito.when(findUsers.invoke(embeddedMock)).thenThrow(new IllegalStateException("stubbed"));
+
+		for (int i = 0; i < 20; i++) {
+			try {
+				findUsers.invoke(facade);
+				fail("Stubbed exception must be thrown");
+			} catch (InvocationTargetException e) {
+				assertTrue(e.getCause() instanceof IllegalStateException);
+			}
+		}
+
+		assertEquals(LIMIT, EjbMockerUtil.getInvocationHistory(facade).size());
+	}
+}
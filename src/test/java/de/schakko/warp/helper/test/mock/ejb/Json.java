@@ -0,0 +1,328 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader and writer for stub definitions, so neither the
+ * generator nor the deployment needs a JSON library. Objects are read as
+ * {@link LinkedHashMap}, arrays as {@link ArrayList}, integral numbers as
+ * {@link Long} and all other numbers as {@link Double}.
+ *
+ * @author ckl
+ *
+ */
+public class Json {
+	private final String text;
+
+	private int pos = 0;
+
+	private Json(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * Parses the given JSON document
+	 *
+	 * @param text
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the document is malformed
+	 */
+	public static Object parse(String text) {
+		Json json = new Json(text);
+		Object r = json.readValue();
+		json.skipWhitespace();
+
+		if (json.pos < text.length()) {
+			throw json.error("Unexpected content after JSON value");
+		}
+
+		return r;
+	}
+
+	/**
+	 * Writes the given value without any whitespace. Characters outside of
+	 * ASCII are escaped, so the result can be embedded into generated source
+	 * code.
+	 *
+	 * @param value
+	 *            null, {@link Map}, {@link Collection}, {@link String},
+	 *            {@link Number} or {@link Boolean}
+	 * @return
+	 */
+	public static String write(Object value) {
+		StringBuilder sb = new StringBuilder();
+		write(value, sb);
+
+		return sb.toString();
+	}
+
+	private static void write(Object value, StringBuilder sb) {
+		if (value == null) {
+			sb.append("null");
+		} else if (value instanceof String) {
+			writeString((String) value, sb);
+		} else if (value instanceof Number || value instanceof Boolean) {
+			sb.append(value);
+		} else if (value instanceof Map) {
+			sb.append('{');
+			boolean first = true;
+
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				if (!first) {
+					sb.append(',');
+				}
+
+				writeString(String.valueOf(entry.getKey()), sb);
+				sb.append(':');
+				write(entry.getValue(), sb);
+				first = false;
+			}
+
+			sb.append('}');
+		} else if (value instanceof Collection) {
+			sb.append('[');
+			boolean first = true;
+
+			for (Object element : (Collection<?>) value) {
+				if (!first) {
+					sb.append(',');
+				}
+
+				write(element, sb);
+				first = false;
+			}
+
+			sb.append(']');
+		} else {
+			throw new IllegalArgumentException("Unable to write " + value.getClass().getName() + " as JSON");
+		}
+	}
+
+	private static void writeString(String value, StringBuilder sb) {
+		sb.append('"');
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20 || c > 0x7e) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+
+		sb.append('"');
+	}
+
+	private Object readValue() {
+		skipWhitespace();
+
+		if (pos >= text.length()) {
+			throw error("Unexpected end of JSON");
+		}
+
+		char c = text.charAt(pos);
+
+		switch (c) {
+		case '{':
+			return readObject();
+		case '[':
+			return readArray();
+		case '"':
+			return readString();
+		case 't':
+			return readLiteral("true", Boolean.TRUE);
+		case 'f':
+			return readLiteral("false", Boolean.FALSE);
+		case 'n':
+			return readLiteral("null", null);
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				return readNumber();
+			}
+
+			throw error("Unexpected character '" + c + "'");
+		}
+	}
+
+	private Map<String, Object> readObject() {
+		Map<String, Object> r = new LinkedHashMap<String, Object>();
+		pos++;
+		skipWhitespace();
+
+		if (consume('}')) {
+			return r;
+		}
+
+		do {
+			skipWhitespace();
+
+			if (pos >= text.length() || text.charAt(pos) != '"') {
+				throw error("Expected property name");
+			}
+
+			String key = readString();
+			skipWhitespace();
+			expect(':');
+			r.put(key, readValue());
+			skipWhitespace();
+		} while (consume(','));
+
+		expect('}');
+
+		return r;
+	}
+
+	private List<Object> readArray() {
+		List<Object> r = new ArrayList<Object>();
+		pos++;
+		skipWhitespace();
+
+		if (consume(']')) {
+			return r;
+		}
+
+		do {
+			r.add(readValue());
+			skipWhitespace();
+		} while (consume(','));
+
+		expect(']');
+
+		return r;
+	}
+
+	private String readString() {
+		StringBuilder sb = new StringBuilder();
+		pos++;
+
+		while (pos < text.length()) {
+			char c = text.charAt(pos++);
+
+			if (c == '"') {
+				return sb.toString();
+			}
+
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+
+			if (pos >= text.length()) {
+				break;
+			}
+
+			char escaped = text.charAt(pos++);
+
+			switch (escaped) {
+			case 'b':
+				sb.append('\b');
+				break;
+			case 'f':
+				sb.append('\f');
+				break;
+			case 'n':
+				sb.append('\n');
+				break;
+			case 'r':
+				sb.append('\r');
+				break;
+			case 't':
+				sb.append('\t');
+				break;
+			case 'u':
+				if (pos + 4 > text.length()) {
+					throw error("Incomplete unicode escape");
+				}
+
+				try {
+					sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+				} catch (NumberFormatException e) {
+					throw error("Invalid unicode escape");
+				}
+
+				pos += 4;
+				break;
+			default:
+				sb.append(escaped);
+			}
+		}
+
+		throw error("Unterminated string");
+	}
+
+	private Object readLiteral(String literal, Object value) {
+		if (!text.startsWith(literal, pos)) {
+			throw error("Expected " + literal);
+		}
+
+		pos += literal.length();
+
+		return value;
+	}
+
+	private Number readNumber() {
+		int start = pos;
+		boolean integral = true;
+
+		while (pos < text.length()) {
+			char c = text.charAt(pos);
+
+			if (c == '.' || c == 'e' || c == 'E') {
+				integral = false;
+			} else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+				break;
+			}
+
+			pos++;
+		}
+
+		String number = text.substring(start, pos);
+
+		try {
+			if (integral) {
+				try {
+					return Long.valueOf(number);
+				} catch (NumberFormatException e) {
+					// too large for a long
+				}
+			}
+
+			return Double.valueOf(number);
+		} catch (NumberFormatException e) {
+			throw error("Invalid number " + number);
+		}
+	}
+
+	private void skipWhitespace() {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private boolean consume(char c) {
+		if (pos < text.length() && text.charAt(pos) == c) {
+			pos++;
+			return true;
+		}
+
+		return false;
+	}
+
+	private void expect(char c) {
+		if (!consume(c)) {
+			throw error("Expected '" + c + "'");
+		}
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at position " + pos);
+	}
+}
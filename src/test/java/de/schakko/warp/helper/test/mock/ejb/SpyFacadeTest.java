@@ -0,0 +1,132 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.ClassFile;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import de.schakko.warp.business.control.UserCache;
+import de.schakko.warp.business.control.UserRepository;
+import de.schakko.warp.business.entity.User;
+
+/**
+ * Spy facades which keep the original bodies of some or all methods. The
+ * nested classes of the EJB are loaded together with the facade, like inside
+ * the deployment.
+ * 
+ * @author ckl
+ * 
+ */
+public class SpyFacadeTest {
+	private final static String SOURCE_CLAZZ = "de.schakko.warp.business.boundary.UserService";
+
+	@Test
+	public void kept_methods_use_injected_fields() throws Exception {
+		Object facade = createFacade(EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).keepOriginalMethod("findById"));
+		Method findById = facade.getClass().getMethod("findById", long.class);
+
+		assertEquals("A real user from database", ((User) findById.invoke(facade, 1L)).getUsername());
+
+		// every other method is still mocked
+		Method findUsersAfter = facade.getClass().getMethod("findUsersAfter", long.class, int.class);
+		assertNull(findUsersAfter.invoke(facade, 0L, 10));
+	}
+
+	@Test
+	public void kept_methods_use_nested_classes_of_the_ejb() throws Exception {
+		Object facade = createFacade(EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).keepOriginalMethod("findUsers"));
+		Method findUsers = facade.getClass().getMethod("findUsers");
+
+		// the anonymous Callable of the UserCache accesses the facade
+		assertEquals(1, ((List<?>) findUsers.invoke(facade)).size());
+
+		ClassLoader loader = facade.getClass().getClassLoader();
+		assertSame(loader, loader.loadClass(SOURCE_CLAZZ + "$1").getClassLoader());
+	}
+
+	@Test
+	public void unstubbed_cached_methods_call_original_method() throws Exception {
+		Object facade = createFacade(EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).useStubTable(true)
+				.callRealMethodsWhenUnstubbed(true));
+		Method findUserPage = facade.getClass().getMethod("findUserPage", int.class, int.class);
+
+		assertEquals(1, ((List<?>) findUserPage.invoke(facade, 0, 10)).size());
+	}
+
+	@Test
+	public void kept_methods_keep_container_annotations() throws Exception {
+		byte[] bytecode = EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).facadeType(FacadeType.SINGLETON)
+				.readLockMethod("findUsersAsync").keepOriginalMethod("findUsersAsync").suppressExceptions(true)
+				.useCache(false).stream();
+		ClassFile cf = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytecode)));
+		AnnotationsAttribute annotations = (AnnotationsAttribute) cf.getMethod("findUsersAsync").getAttribute(
+				AnnotationsAttribute.visibleTag);
+
+		assertNotNull(annotations.getAnnotation(EjbMocker.ASYNCHRONOUS_ANNOTATION));
+		assertNotNull(annotations.getAnnotation("javax.ejb.Lock"));
+	}
+
+	@Test
+	public void unstubbed_methods_of_mockito_facades_call_original_method() throws Exception {
+		Object facade = createFacade(EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).callRealMethodsWhenUnstubbed(
+				true));
+		Method findUsersAfter = facade.getClass().getMethod("findUsersAfter", long.class, int.class);
+
+		assertEquals(1, ((List<?>) findUsersAfter.invoke(facade, 0L, 10)).size());
+
+		List<User> stubbed = new ArrayList<User>();
+		Object embeddedMock = EjbMockerUtil.getEmbeddedMock(facade, Object.class);
+		Mockito.when(findUsersAfter.invoke(embeddedMock, 0L, 10)).thenReturn(stubbed);
+
+		assertSame(stubbed, findUsersAfter.invoke(facade, 0L, 10));
+		// other arguments are not stubbed
+		assertEquals(1, ((List<?>) findUsersAfter.invoke(facade, 0L, 5)).size());
+		// the real calls have been recorded, too
+		Mockito.verify(embeddedMock, Mockito.times(2));
+		findUsersAfter.invoke(embeddedMock, 0L, 10);
+	}
+
+	@Test
+	public void unstubbed_methods_of_stub_table_facades_call_original_method() throws Exception {
+		Object facade = createFacade(EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).useStubTable(true)
+				.callRealMethodsWhenUnstubbed(true));
+		Method findById = facade.getClass().getMethod("findById", long.class);
+
+		assertEquals(1, ((User) findById.invoke(facade, 1L)).getId());
+
+		User stubbed = new User(42, "stubbed");
+		EjbMockerUtil.getStubTable(facade).when("findById").thenReturn(stubbed);
+		assertSame(stubbed, findById.invoke(facade, 1L));
+	}
+
+	/**
+	 * Creates the facade and injects the UserRepository and the UserCache like
+	 * the container would do
+	 */
+	private Object createFacade(EjbMocker.EjbMockerBuilder builder) throws Exception {
+		Map<String, byte[]> classes = builder.suppressExceptions(true).useCache(false).streamWithNestedClasses();
+		Object r = FacadeClassLoader.newFacade(SOURCE_CLAZZ, classes);
+
+		inject(r, "userRepository", new UserRepository());
+		inject(r, "userCache", new UserCache());
+
+		return r;
+	}
+
+	private void inject(Object target, String name, Object value) throws Exception {
+		Field field = target.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(target, value);
+	}
+}
@@ -0,0 +1,18 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+/**
+ * Computes the return value of a facade method which uses a {@link StubTable}
+ * 
+ * @author ckl
+ * 
+ */
+public interface StubAnswer {
+	/**
+	 * @param arguments
+	 *            arguments of the facade method call
+	 * @return the return value of the facade method; primitives must be boxed
+	 * @throws Throwable
+	 *             is thrown by the facade method
+	 */
+	Object answer(Object[] arguments) throws Throwable;
+}
@@ -0,0 +1,124 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+/**
+ * Batch of {@link StubDefinitions} for multiple deployed facades; executed by
+ * the {@link StubControlServlet}. The batch is a JSON object whose keys are
+ * the class names of the mocked EJBs:
+ *
+ * <pre>
+ * {
+ *   "de.schakko.warp.business.boundary.UserService": {
+ *     "findFirstUser": { "id": 2, "username": "A mocked user instance" }
+ *   },
+ *   "de.schakko.warp.business.boundary.OtherService": null
+ * }
+ * </pre>
+ *
+ * Every listed facade is reset and stubbed with its definitions; null only
+ * resets the facade. Definitions compiled into a facade survive the reset,
+ * see {@link EjbMockerUtil#reset(Object)}. All EJBs and definitions are
+ * resolved before any facade is changed, so a broken batch leaves the
+ * deployment untouched.
+ *
+ * Stateful facades with an embedded mock are rejected: every lookup creates a
+ * new instance with its own mock, so the stubbing would never be seen by the
+ * application. Use a singleton or stateless facade or a {@link StubTable}
+ * instead.
+ *
+ * @author ckl
+ *
+ */
+public class StubBatch {
+	private static final Logger log = Logger.getLogger(StubBatch.class.getName());
+
+	/**
+	 * JNDI prefix of the mocked EJBs
+	 */
+	public final static String JNDI_PREFIX = "java:module/";
+
+	/**
+	 * Resets and stubs every facade of the given batch
+	 *
+	 * @param json
+	 * @return number of changed facades
+	 * @throws IllegalArgumentException
+	 *             if the batch or any definition is invalid or a facade does
+	 *             not share its stubbing between its instances
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public int execute(String json) throws Exception {
+		Map<Object, List<StubDefinitions.Binding>> facades = new LinkedHashMap<Object, List<StubDefinitions.Binding>>();
+
+		// resolve everything first; the facades are changed afterwards
+		for (Map.Entry<String, Object> entry : StubDefinitions.parse(json).entrySet()) {
+			Object definitions = entry.getValue();
+
+			if (definitions != null && !(definitions instanceof Map)) {
+				throw new IllegalArgumentException("Stub definitions of " + entry.getKey()
+						+ " must be a JSON object or null");
+			}
+
+			Class<?> facadeClazz = loadFacade(entry.getKey());
+
+			if (!EjbMockerUtil.isStubbingShared(facadeClazz)) {
+				throw new IllegalArgumentException("Facade " + entry.getKey()
+						+ " is stateful and owns its embedded mock; stubbing it would only change a new instance");
+			}
+
+			Object ejb = lookup(entry.getKey());
+			facades.put(ejb, definitions == null ? null : StubDefinitions.bind(facadeClazz,
+					(Map<String, Object>) definitions));
+		}
+
+		for (Map.Entry<Object, List<StubDefinitions.Binding>> facade : facades.entrySet()) {
+			Object ejb = facade.getKey();
+			EjbMockerUtil.reset(ejb);
+
+			if (facade.getValue() == null) {
+				continue;
+			}
+
+			if (EjbMockerUtil.hasStubTable(ejb)) {
+				StubDefinitions.stubTable(EjbMockerUtil.getStubTable(ejb), facade.getValue());
+			} else {
+				StubDefinitions.stubMock(EjbMockerUtil.getEmbeddedMock(ejb, Object.class), facade.getValue());
+			}
+		}
+
+		log.info("Stubbed " + facades.size() + " facades");
+
+		return facades.size();
+	}
+
+	/**
+	 * Looks up the EJB with given class name by java:module/&lt;SimpleName&gt;
+	 *
+	 * @param clazzName
+	 * @return the container proxy of the facade
+	 * @throws NamingException
+	 */
+	protected Object lookup(String clazzName) throws NamingException {
+		return new InitialContext().lookup(JNDI_PREFIX + clazzName.substring(clazzName.lastIndexOf('.') + 1));
+	}
+
+	/**
+	 * Loads the facade class; its generic return types are needed for
+	 * converting the definitions
+	 *
+	 * @param clazzName
+	 * @return
+	 * @throws ClassNotFoundException
+	 */
+	protected Class<?> loadFacade(String clazzName) throws ClassNotFoundException {
+		return Class.forName(clazzName, false, getClass().getClassLoader());
+	}
+}
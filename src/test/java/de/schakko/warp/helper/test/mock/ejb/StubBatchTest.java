@@ -0,0 +1,128 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.schakko.warp.business.entity.User;
+
+/**
+ * Batches of stub definitions as executed by the {@link StubControlServlet}.
+ * The JNDI lookup is replaced by facades which are created inside the test.
+ *
+ * @author ckl
+ *
+ */
+public class StubBatchTest {
+	private final static String SOURCE_CLAZZ = "de.schakko.warp.business.boundary.UserService";
+
+	private final static String MOCKITO_FACADE = "mockito.UserService";
+
+	private final static String STUB_TABLE_FACADE = "stubTable.UserService";
+
+	private final static String STATEFUL_FACADE = "stateful.UserService";
+
+	private final Map<String, Object> facades = new HashMap<String, Object>();
+
+	private final StubBatch batch = new StubBatch() {
+		@Override
+		protected Object lookup(String clazzName) {
+			return facades.get(clazzName);
+		}
+
+		@Override
+		protected Class<?> loadFacade(String clazzName) {
+			return facades.get(clazzName).getClass();
+		}
+	};
+
+	@Before
+	public void createFacades() throws Exception {
+		facades.put(MOCKITO_FACADE, createFacade(EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ)));
+		facades.put(STUB_TABLE_FACADE, createFacade(EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).useStubTable(
+				true)));
+	}
+
+	@Test
+	public void all_facades_of_the_batch_are_stubbed() throws Exception {
+		assertEquals(2, batch.execute("{ \"" + MOCKITO_FACADE + "\": { \"findFirstUser\": { \"id\": 2 } }, \""
+				+ STUB_TABLE_FACADE + "\": { \"findFirstUser\": { \"id\": 3 } } }"));
+
+		assertEquals(2, findFirstUser(MOCKITO_FACADE).getId());
+		assertEquals(3, findFirstUser(STUB_TABLE_FACADE).getId());
+	}
+
+	@Test
+	public void stubbing_is_replaced() throws Exception {
+		batch.execute("{ \"" + MOCKITO_FACADE + "\": { \"findFirstUser\": { \"id\": 2 } } }");
+		batch.execute("{ \"" + MOCKITO_FACADE + "\": { \"findUsers\": [] } }");
+
+		assertNull(findFirstUser(MOCKITO_FACADE));
+
+		batch.execute("{ \"" + STUB_TABLE_FACADE + "\": { \"findFirstUser\": { \"id\": 3 } } }");
+		batch.execute("{ \"" + STUB_TABLE_FACADE + "\": null }");
+
+		assertNull(findFirstUser(STUB_TABLE_FACADE));
+	}
+
+	@Test
+	public void invalid_batch_changes_no_facade() throws Exception {
+		batch.execute("{ \"" + MOCKITO_FACADE + "\": { \"findFirstUser\": { \"id\": 2 } } }");
+
+		try {
+			batch.execute("{ \"" + MOCKITO_FACADE + "\": null, \"" + STUB_TABLE_FACADE
+					+ "\": { \"findNobody\": null } }");
+			fail("Unknown method must be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		assertEquals(2, findFirstUser(MOCKITO_FACADE).getId());
+	}
+
+	@Test
+	public void stateful_facades_are_rejected() throws Exception {
+		facades.put(STATEFUL_FACADE, createFacade(EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).facadeType(
+				FacadeType.STATEFUL)));
+		batch.execute("{ \"" + MOCKITO_FACADE + "\": { \"findFirstUser\": { \"id\": 2 } } }");
+
+		try {
+			batch.execute("{ \"" + MOCKITO_FACADE + "\": null, \"" + STATEFUL_FACADE
+					+ "\": { \"findFirstUser\": { \"id\": 3 } } }");
+			fail("Stateful facade must be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		assertEquals(2, findFirstUser(MOCKITO_FACADE).getId());
+		assertNull(findFirstUser(STATEFUL_FACADE));
+	}
+
+	@Test
+	public void stubbing_of_stateful_facades_is_not_shared() throws Exception {
+		assertTrue(EjbMockerUtil.isStubbingShared(facades.get(MOCKITO_FACADE).getClass()));
+		assertTrue(EjbMockerUtil.isStubbingShared(facades.get(STUB_TABLE_FACADE).getClass()));
+		assertTrue(EjbMockerUtil.isStubbingShared(createFacade(
+				EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).facadeType(FacadeType.STATELESS)).getClass()));
+		assertTrue(EjbMockerUtil.isStubbingShared(createFacade(
+				EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).facadeType(FacadeType.STATEFUL).useStubTable(true))
+				.getClass()));
+		assertFalse(EjbMockerUtil.isStubbingShared(createFacade(
+				EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).facadeType(FacadeType.STATEFUL)).getClass()));
+	}
+
+	private User findFirstUser(String facade) throws Exception {
+		Object ejb = facades.get(facade);
+
+		return (User) ejb.getClass().getMethod("findFirstUser").invoke(ejb);
+	}
+
+	private Object createFacade(EjbMocker.EjbMockerBuilder builder) throws Exception {
+		byte[] bytecode = builder.suppressExceptions(true).useCache(false).stream();
+		return FacadeClassLoader.newFacade(SOURCE_CLAZZ, bytecode);
+	}
+}
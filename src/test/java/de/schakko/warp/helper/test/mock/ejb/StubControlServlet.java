@@ -0,0 +1,61 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.naming.NamingException;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Stubs the deployed EJB facades without a Warp inspection. The body of a
+ * POST request is executed as {@link StubBatch}; the response contains the
+ * number of changed facades. Invalid batches are answered with 400, unknown
+ * EJBs with 404.
+ *
+ * The servlet is registered by the web.xml of the baseline WAR and must never
+ * be part of a production deployment.
+ *
+ * @author ckl
+ *
+ */
+public class StubControlServlet extends HttpServlet {
+	private static final long serialVersionUID = 4870164025153395521L;
+
+	private static final Logger log = Logger.getLogger(StubControlServlet.class.getName());
+
+	/**
+	 * Path of the servlet inside the deployment
+	 */
+	public final static String PATH = "/stub-control";
+
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		String json = new String(EjbMockerCache.readFully(req.getInputStream()), "UTF-8");
+		int changed;
+
+		try {
+			changed = new StubBatch().execute(json);
+		} catch (IllegalArgumentException e) {
+			log.warning("Rejecting stub batch: " + e.getMessage());
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		} catch (NamingException e) {
+			log.warning("Unable to look up EJB: " + e.getMessage());
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+			return;
+		} catch (ClassNotFoundException e) {
+			log.warning("Unable to load facade: " + e.getMessage());
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+			return;
+		} catch (Exception e) {
+			throw new ServletException("Unable to stub facades", e);
+		}
+
+		resp.setContentType("text/plain");
+		resp.setCharacterEncoding("UTF-8");
+		resp.getWriter().print(changed);
+	}
+}
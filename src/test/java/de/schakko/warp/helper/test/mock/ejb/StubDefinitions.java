@@ -0,0 +1,578 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.objenesis.Objenesis;
+import org.objenesis.ObjenesisStd;
+
+/**
+ * Declarative canned answers of facade methods. The definitions are a JSON
+ * object whose keys are method names, optionally followed by the parameter
+ * types, and whose values are the return values of the methods:
+ *
+ * <pre>
+ * {
+ *   "findFirstUser": { "id": 2, "username": "A mocked user instance" },
+ *   "findUsers": [ { "id": 2, "username": "A mocked user instance" } ],
+ *   "findUserPage(int, int)": []
+ * }
+ * </pre>
+ *
+ * A method name without parameter types matches every overloaded method. The
+ * values are converted to the generic return type of the method; objects are
+ * mapped field by field, so entities do not need a default constructor.
+ * Methods returning a {@link Future} or an {@link Iterator} get a new one on
+ * every call. All other values are created once and shared by every call,
+ * like Mockito's thenReturn.
+ *
+ * {@link EjbMocker} compiles the definitions into the facade, see
+ * {@link EjbMocker.EjbMockerBuilder#stubDefinitions(String)}. Tests can
+ * still override them by stubbing the facade as usual.
+ *
+ * @author ckl
+ *
+ */
+public class StubDefinitions {
+	private static final Logger log = Logger.getLogger(StubDefinitions.class.getName());
+
+	/**
+	 * Creates entities without calling a constructor; Objenesis is bundled
+	 * with mockito-all
+	 */
+	private final static Objenesis objenesis = new ObjenesisStd();
+
+	/**
+	 * Canned answer of a single facade method
+	 */
+	static class Binding {
+		final Method method;
+
+		final Object value;
+
+		final StubAnswer answer;
+
+		/**
+		 * true if the answer returns the same value on every call
+		 */
+		final boolean constant;
+
+		Binding(Method method, Object value, StubAnswer answer, boolean constant) {
+			this.method = method;
+			this.value = value;
+			this.answer = answer;
+			this.constant = constant;
+		}
+	}
+
+	private StubDefinitions() {
+	}
+
+	/**
+	 * Parses the given definitions
+	 *
+	 * @param json
+	 * @return return values by method key
+	 * @throws IllegalArgumentException
+	 *             if the definitions are no JSON object
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, Object> parse(String json) {
+		Object r = Json.parse(json);
+
+		if (!(r instanceof Map)) {
+			throw new IllegalArgumentException("Stub definitions must be a JSON object but were " + json);
+		}
+
+		return (Map<String, Object>) r;
+	}
+
+	/**
+	 * Registers the definitions inside the stub table of the given facade.
+	 * Called by the class initializer of the generated facade.
+	 *
+	 * @param stubs
+	 * @param facade
+	 * @param json
+	 * @return the given stub table
+	 */
+	public static StubTable apply(StubTable stubs, Class<?> facade, String json) {
+		return stubTable(stubs, bind(facade, parse(json)));
+	}
+
+	/**
+	 * Stubs the given embedded mock with the definitions. Called by the
+	 * generated facade after the mock has been created.
+	 *
+	 * @param mock
+	 * @param facade
+	 * @param json
+	 * @return the given mock
+	 */
+	public static <T> T apply(T mock, Class<?> facade, String json) {
+		return stubMock(mock, bind(facade, parse(json)));
+	}
+
+	static StubTable stubTable(StubTable stubs, List<Binding> bindings) {
+		for (Binding binding : bindings) {
+			StubTable.OngoingStub stub = stubs.when(binding.method.getName(), binding.method.getParameterTypes());
+
+			if (binding.constant) {
+				stub.thenReturn(binding.value);
+			} else {
+				stub.thenAnswer(binding.answer);
+			}
+		}
+
+		return stubs;
+	}
+
+	static <T> T stubMock(T mock, List<Binding> bindings) {
+		for (Binding binding : bindings) {
+			final StubAnswer answer = binding.answer;
+			Object stubbing = Mockito.doAnswer(new Answer<Object>() {
+				public Object answer(InvocationOnMock invocation) throws Throwable {
+					return answer.answer(invocation.getArguments());
+				}
+			}).when(mock);
+
+			try {
+				binding.method.invoke(stubbing, anyArguments(binding.method));
+			} catch (Exception e) {
+				throw new IllegalStateException("Unable to stub " + binding.method, e);
+			}
+		}
+
+		return mock;
+	}
+
+	/**
+	 * Resolves the facade methods of all definitions and converts the
+	 * return values
+	 *
+	 * @param facade
+	 * @param definitions
+	 * @return
+	 */
+	static List<Binding> bind(Class<?> facade, Map<String, Object> definitions) {
+		List<Binding> r = new ArrayList<Binding>();
+
+		for (Map.Entry<String, Object> definition : definitions.entrySet()) {
+			List<Method> methods = findMethods(facade, definition.getKey());
+
+			if (methods.isEmpty()) {
+				throw new IllegalArgumentException("No method " + definition.getKey() + " inside facade "
+						+ facade.getName());
+			}
+
+			for (Method method : methods) {
+				log.fine("Binding stub definition of " + method);
+				r.add(bind(method, definition.getValue()));
+			}
+		}
+
+		return r;
+	}
+
+	static Binding bind(Method method, Object json) {
+		Class<?> returnType = method.getReturnType();
+		Type genericReturnType = method.getGenericReturnType();
+
+		if (returnType == void.class) {
+			return new Binding(method, null, new StubAnswer() {
+				public Object answer(Object[] arguments) {
+					return null;
+				}
+			}, true);
+		}
+
+		if (returnType == Future.class) {
+			final Object value = convert(json, typeArgument(genericReturnType, 0));
+
+			return new Binding(method, value, new StubAnswer() {
+				public Object answer(Object[] arguments) {
+					return new CompletedFuture<Object>(value);
+				}
+			}, false);
+		}
+
+		if (returnType == Iterator.class) {
+			final List<Object> values = convertList(json, typeArgument(genericReturnType, 0));
+
+			return new Binding(method, values, new StubAnswer() {
+				public Object answer(Object[] arguments) {
+					return values.iterator();
+				}
+			}, false);
+		}
+
+		final Object value = convert(json, genericReturnType);
+
+		return new Binding(method, value, new StubAnswer() {
+			public Object answer(Object[] arguments) {
+				return value;
+			}
+		}, true);
+	}
+
+	/**
+	 * Returns all public methods of the facade which match the given key.
+	 * Generated accessors and copies of original methods are skipped.
+	 *
+	 * @param facade
+	 * @param key
+	 *            e.g. "findUsers" or "findUserPage(int, int)"
+	 * @return
+	 */
+	static List<Method> findMethods(Class<?> facade, String key) {
+		List<Method> r = new ArrayList<Method>();
+
+		for (Method method : facade.getDeclaredMethods()) {
+			if (!Modifier.isPublic(method.getModifiers()) || method.isSynthetic() || method.getName().startsWith("__")) {
+				continue;
+			}
+
+			Class<?>[] parameterTypes = method.getParameterTypes();
+			String[] parameterTypeNames = new String[parameterTypes.length];
+
+			for (int i = 0; i < parameterTypes.length; i++) {
+				parameterTypeNames[i] = parameterTypes[i].getCanonicalName();
+			}
+
+			if (matches(key, method.getName(), parameterTypeNames)) {
+				r.add(method);
+			}
+		}
+
+		return r;
+	}
+
+	/**
+	 * Returns true if the definition key matches the given method. Parameter
+	 * types can be given with their simple or their fully qualified name.
+	 *
+	 * @param key
+	 * @param methodName
+	 * @param parameterTypeNames
+	 *            fully qualified names, arrays end with "[]"
+	 * @return
+	 */
+	static boolean matches(String key, String methodName, String[] parameterTypeNames) {
+		int parenthesis = key.indexOf('(');
+
+		if (parenthesis < 0) {
+			return key.trim().equals(methodName);
+		}
+
+		if (!key.substring(0, parenthesis).trim().equals(methodName) || !key.trim().endsWith(")")) {
+			return false;
+		}
+
+		String parameters = key.substring(parenthesis + 1, key.lastIndexOf(')')).trim();
+		String[] expected = parameters.isEmpty() ? new String[0] : parameters.split(",");
+
+		if (expected.length != parameterTypeNames.length) {
+			return false;
+		}
+
+		for (int i = 0; i < expected.length; i++) {
+			String type = expected[i].trim();
+			String actual = parameterTypeNames[i].replace('$', '.');
+
+			if (!type.equals(actual) && !type.equals(actual.substring(actual.lastIndexOf('.') + 1))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Converts the parsed JSON value to the given type
+	 *
+	 * @param json
+	 * @param type
+	 * @return
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static Object convert(Object json, Type type) {
+		Class<?> raw = rawType(type);
+
+		if (json == null) {
+			if (raw.isPrimitive()) {
+				throw new IllegalArgumentException("null is no value of " + raw.getName());
+			}
+
+			return null;
+		}
+
+		if (raw == Object.class) {
+			return json;
+		}
+
+		if (raw.isPrimitive() || Number.class.isAssignableFrom(raw) || raw == Boolean.class
+				|| raw == Character.class || raw == String.class) {
+			return convertSimple(json, raw);
+		}
+
+		if (raw.isEnum()) {
+			return Enum.valueOf((Class<Enum>) raw, (String) expect(json, String.class, raw));
+		}
+
+		if (raw.isArray()) {
+			Type componentType = type instanceof GenericArrayType ? ((GenericArrayType) type)
+					.getGenericComponentType() : raw.getComponentType();
+			List<Object> values = convertList(json, componentType);
+			Object r = Array.newInstance(raw.getComponentType(), values.size());
+
+			for (int i = 0; i < values.size(); i++) {
+				Array.set(r, i, values.get(i));
+			}
+
+			return r;
+		}
+
+		if (raw.isAssignableFrom(ArrayList.class)) {
+			return convertList(json, typeArgument(type, 0));
+		}
+
+		if (raw.isAssignableFrom(LinkedHashSet.class)) {
+			return new LinkedHashSet<Object>(convertList(json, typeArgument(type, 0)));
+		}
+
+		if (raw.isAssignableFrom(LinkedHashMap.class)) {
+			Map<String, Object> r = new LinkedHashMap<String, Object>();
+
+			for (Map.Entry<String, Object> entry : ((Map<String, Object>) expect(json, Map.class, raw)).entrySet()) {
+				r.put(entry.getKey(), convert(entry.getValue(), typeArgument(type, 1)));
+			}
+
+			return r;
+		}
+
+		return convertBean((Map<String, Object>) expect(json, Map.class, raw), raw);
+	}
+
+	static List<Object> convertList(Object json, Type elementType) {
+		List<Object> r = new ArrayList<Object>();
+
+		for (Object element : (Collection<?>) expect(json, Collection.class, List.class)) {
+			r.add(convert(element, elementType));
+		}
+
+		return r;
+	}
+
+	private static Object convertSimple(Object json, Class<?> type) {
+		if (type == String.class) {
+			return expect(json, String.class, type);
+		}
+
+		if (type == boolean.class || type == Boolean.class) {
+			return expect(json, Boolean.class, type);
+		}
+
+		if (type == char.class || type == Character.class) {
+			String s = (String) expect(json, String.class, type);
+
+			if (s.length() != 1) {
+				throw new IllegalArgumentException("\"" + s + "\" is no value of " + type.getName());
+			}
+
+			return s.charAt(0);
+		}
+
+		Number number = (Number) expect(json, Number.class, type);
+
+		if (type == int.class || type == Integer.class) {
+			return number.intValue();
+		} else if (type == long.class || type == Long.class) {
+			return number.longValue();
+		} else if (type == double.class || type == Double.class) {
+			return number.doubleValue();
+		} else if (type == float.class || type == Float.class) {
+			return number.floatValue();
+		} else if (type == short.class || type == Short.class) {
+			return number.shortValue();
+		} else if (type == byte.class || type == Byte.class) {
+			return number.byteValue();
+		}
+
+		throw new IllegalArgumentException("Unsupported number type " + type.getName());
+	}
+
+	/**
+	 * Creates a new instance of the given type and assigns every property to
+	 * the field with the same name
+	 *
+	 * @param json
+	 * @param type
+	 * @return
+	 */
+	private static Object convertBean(Map<String, Object> json, Class<?> type) {
+		Object r = instantiate(type);
+
+		for (Map.Entry<String, Object> property : json.entrySet()) {
+			Field field = findField(type, property.getKey());
+
+			try {
+				field.setAccessible(true);
+				field.set(r, convert(property.getValue(), field.getGenericType()));
+			} catch (IllegalAccessException e) {
+				throw new IllegalArgumentException("Unable to set " + field, e);
+			}
+		}
+
+		return r;
+	}
+
+	private static Field findField(Class<?> type, String name) {
+		for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+			try {
+				Field r = current.getDeclaredField(name);
+
+				if (!Modifier.isStatic(r.getModifiers())) {
+					return r;
+				}
+			} catch (NoSuchFieldException e) {
+				// look inside the super class
+			}
+		}
+
+		throw new IllegalArgumentException("No field " + name + " inside " + type.getName());
+	}
+
+	/**
+	 * Uses the default constructor if there is one. Entities often have only
+	 * constructors with arguments; they are instantiated like deserialized
+	 * objects without calling any of their constructors.
+	 *
+	 * @param type
+	 * @return
+	 */
+	private static Object instantiate(Class<?> type) {
+		if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+			throw new IllegalArgumentException("Unable to instantiate " + type.getName());
+		}
+
+		try {
+			try {
+				Constructor<?> constructor = type.getDeclaredConstructor();
+				constructor.setAccessible(true);
+
+				return constructor.newInstance();
+			} catch (NoSuchMethodException e) {
+				return objenesis.newInstance(type);
+			}
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Unable to instantiate " + type.getName(), e);
+		}
+	}
+
+	private static Object expect(Object json, Class<?> jsonType, Class<?> type) {
+		if (!jsonType.isInstance(json)) {
+			throw new IllegalArgumentException(Json.write(json) + " is no value of " + type.getName());
+		}
+
+		return json;
+	}
+
+	private static Class<?> rawType(Type type) {
+		if (type instanceof Class) {
+			return (Class<?>) type;
+		}
+
+		if (type instanceof ParameterizedType) {
+			return (Class<?>) ((ParameterizedType) type).getRawType();
+		}
+
+		if (type instanceof GenericArrayType) {
+			return Array.newInstance(rawType(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+		}
+
+		if (type instanceof WildcardType) {
+			return rawType(((WildcardType) type).getUpperBounds()[0]);
+		}
+
+		if (type instanceof TypeVariable) {
+			return rawType(((TypeVariable<?>) type).getBounds()[0]);
+		}
+
+		return Object.class;
+	}
+
+	/**
+	 * @param type
+	 * @param index
+	 * @return the type argument or {@link Object} for raw types
+	 */
+	private static Type typeArgument(Type type, int index) {
+		if (type instanceof ParameterizedType) {
+			Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+
+			if (index < arguments.length) {
+				return arguments[index];
+			}
+		}
+
+		return Object.class;
+	}
+
+	/**
+	 * Registers one Mockito matcher per parameter which matches every
+	 * argument
+	 *
+	 * @param method
+	 * @return
+	 */
+	private static Object[] anyArguments(Method method) {
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		Object[] r = new Object[parameterTypes.length];
+
+		for (int i = 0; i < parameterTypes.length; i++) {
+			Class<?> type = parameterTypes[i];
+
+			if (type == int.class) {
+				r[i] = Mockito.anyInt();
+			} else if (type == long.class) {
+				r[i] = Mockito.anyLong();
+			} else if (type == boolean.class) {
+				r[i] = Mockito.anyBoolean();
+			} else if (type == double.class) {
+				r[i] = Mockito.anyDouble();
+			} else if (type == float.class) {
+				r[i] = Mockito.anyFloat();
+			} else if (type == short.class) {
+				r[i] = Mockito.anyShort();
+			} else if (type == byte.class) {
+				r[i] = Mockito.anyByte();
+			} else if (type == char.class) {
+				r[i] = Mockito.anyChar();
+			} else {
+				r[i] = Mockito.any();
+			}
+		}
+
+		return r;
+	}
+}
@@ -0,0 +1,151 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import de.schakko.warp.business.entity.User;
+
+/**
+ * Stub definitions which are compiled into the facade
+ *
+ * @author ckl
+ *
+ */
+public class StubDefinitionsTest {
+	private final static String SOURCE_CLAZZ = "de.schakko.warp.business.boundary.UserService";
+
+	private final static File STUB_DEFINITIONS = new File("src/test/resources/stubs/UserService.json");
+
+	@Test
+	public void stub_table_facade_answers_with_definitions() throws Exception {
+		Object facade = createFacade(EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).useStubTable(true)
+				.stubDefinitions(STUB_DEFINITIONS));
+
+		assertDefinitionsApplied(facade);
+
+		// the definitions can still be overridden
+		User stubbed = new User(42, "stubbed");
+		EjbMockerUtil.getStubTable(facade).when("findFirstUser").thenReturn(stubbed);
+		assertSame(stubbed, facade.getClass().getMethod("findFirstUser").invoke(facade));
+	}
+
+	@Test
+	public void mockito_facade_answers_with_definitions() throws Exception {
+		Object facade = createFacade(EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).stubDefinitions(
+				STUB_DEFINITIONS));
+
+		assertDefinitionsApplied(facade);
+
+		Method findFirstUser = facade.getClass().getMethod("findFirstUser");
+		Object embeddedMock = EjbMockerUtil.getEmbeddedMock(facade, Object.class);
+		User stubbed = new User(42, "stubbed");
+		Mockito.when(findFirstUser.invoke(embeddedMock)).thenReturn(stubbed);
+
+		assertSame(stubbed, findFirstUser.invoke(facade));
+	}
+
+	@Test
+	public void reset_restores_definitions() throws Exception {
+		for (boolean useStubTable : new boolean[] { false, true }) {
+			Object facade = createFacade(EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).useStubTable(useStubTable)
+					.stubDefinitions(STUB_DEFINITIONS));
+			Method findFirstUser = facade.getClass().getMethod("findFirstUser");
+
+			if (useStubTable) {
+				EjbMockerUtil.getStubTable(facade).when("findFirstUser").thenReturn(new User(42, "stubbed"));
+			} else {
+				Object embeddedMock = EjbMockerUtil.getEmbeddedMock(facade, Object.class);
+				Mockito.when(findFirstUser.invoke(embeddedMock)).thenReturn(new User(42, "stubbed"));
+			}
+
+			EjbMockerUtil.reset(facade);
+
+			assertDefinitionsApplied(facade);
+		}
+	}
+
+	@Test
+	public void undefined_methods_are_not_stubbed() throws Exception {
+		Object facade = createFacade(EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).useStubTable(true)
+				.stubDefinitions("{ \"findFirstUser\": null }"));
+
+		assertNull(facade.getClass().getMethod("findUserPage", int.class, int.class).invoke(facade, 0, 10));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void definitions_of_unknown_methods_are_rejected() throws Exception {
+		EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).useCache(false).stubDefinitions("{ \"findNobody\": null }")
+				.stream();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void definitions_with_wrong_parameter_types_are_rejected() throws Exception {
+		EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).useCache(false)
+				.stubDefinitions("{ \"findById(int)\": null }").stream();
+	}
+
+	@Test
+	public void definitions_are_part_of_the_cache_key() throws Exception {
+		EjbMocker mocker = new EjbMocker(SOURCE_CLAZZ);
+		String withoutDefinitions = mocker.createCacheKey();
+
+		mocker.setStubDefinitions("{ \"findFirstUser\": null }");
+
+		assertFalse(withoutDefinitions.equals(mocker.createCacheKey()));
+	}
+
+	@Test
+	public void json_is_written_compact_and_ascii_only() throws Exception {
+		Object parsed = Json.parse("{ \"name\" : \"M\\u00fcller \\\"Max\\\"\", \"ids\": [1, 2.5, true, null] }");
+		String written = Json.write(parsed);
+
+		assertEquals("{\"name\":\"M\\u00fcller \\\"Max\\\"\",\"ids\":[1,2.5,true,null]}", written);
+		assertEquals(parsed, Json.parse(written));
+		assertEquals("M\u00fcller \"Max\"", ((Map<?, ?>) parsed).get("name"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void malformed_json_is_rejected() {
+		Json.parse("{ \"findUsers\": [ }");
+	}
+
+	private void assertDefinitionsApplied(Object facade) throws Exception {
+		Class<?> clazz = facade.getClass();
+
+		// User has no default constructor
+		User firstUser = (User) clazz.getMethod("findFirstUser").invoke(facade);
+		assertEquals(2, firstUser.getId());
+		assertEquals("A mocked user instance", firstUser.getUsername());
+
+		// the element type is taken from the generic return type
+		List<?> users = (List<?>) clazz.getMethod("findUsers").invoke(facade);
+		assertEquals(2, users.size());
+		assertEquals("Another mocked user instance", ((User) users.get(1)).getUsername());
+
+		Future<?> future = (Future<?>) clazz.getMethod("findUsersAsync").invoke(facade);
+		assertEquals(1, ((List<?>) future.get()).size());
+
+		// every call gets a new iterator
+		Method iterateUsers = clazz.getMethod("iterateUsers");
+		Iterator<?> iterator = (Iterator<?>) iterateUsers.invoke(facade);
+		iterator.next();
+		assertFalse(iterator.hasNext());
+		assertTrue(((Iterator<?>) iterateUsers.invoke(facade)).hasNext());
+
+		assertEquals(2, ((User) clazz.getMethod("findById", long.class).invoke(facade, 7L)).getId());
+	}
+
+	private Object createFacade(EjbMocker.EjbMockerBuilder builder) throws Exception {
+		byte[] bytecode = builder.suppressExceptions(true).useCache(false).stream();
+		return FacadeClassLoader.newFacade(SOURCE_CLAZZ, bytecode);
+	}
+}
@@ -0,0 +1,403 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lightweight alternative to the embedded Mockito instance of a facade. The
+ * table contains one answer per facade method and is indexed by the position
+ * of the method inside the facade, so a call does not match any arguments,
+ * does not record any invocation and does not allocate anything besides the
+ * return value. Only answers registered by
+ * {@link OngoingStub#thenAnswer(StubAnswer)} get the method arguments.
+ * 
+ * Unstubbed methods return null, false or 0.
+ * 
+ * <pre>
+ * StubTable stubs = EjbMockerUtil.getStubTable(userService);
+ * stubs.when(&quot;findUsers&quot;).thenReturn(users);
+ * </pre>
+ * 
+ * There is one table per facade class which is shared by all facade
+ * instances.
+ * 
+ * @author ckl
+ * 
+ */
+public class StubTable {
+	/**
+	 * Separator of the method keys passed by the generated facade
+	 */
+	public final static String METHOD_SEPARATOR = ",";
+
+	/**
+	 * Arguments of methods without parameters; shared, so zero-argument calls
+	 * still do not allocate anything
+	 */
+	private final static Object[] NO_ARGUMENTS = new Object[0];
+
+	/**
+	 * Method name and JVM descriptor, e.g. "findUsers()Ljava/util/List;"
+	 */
+	private final String[] methods;
+
+	/**
+	 * Entries of unstubbed methods which return null, false or 0
+	 */
+	private final Entry[] defaults;
+
+	/**
+	 * Copy on write; stubbing is rare compared to calls
+	 */
+	private volatile Entry[] entries;
+
+	/**
+	 * Answer of a single method. The answer and the information whether it
+	 * needs the call arguments are published together, so the generated
+	 * facade reads the entry once and never mixes an answer with the flag of
+	 * another one.
+	 */
+	public final static class Entry {
+		private final StubAnswer answer;
+
+		private final boolean argumentAware;
+
+		private final boolean stubbed;
+
+		Entry(StubAnswer answer, boolean argumentAware, boolean stubbed) {
+			this.answer = answer;
+			this.argumentAware = argumentAware;
+			this.stubbed = stubbed;
+		}
+
+		/**
+		 * Returns the answer of a method without parameters or whose answer
+		 * does not need any arguments
+		 * 
+		 * @return
+		 * @throws Throwable
+		 */
+		public Object answer() throws Throwable {
+			return answer.answer(NO_ARGUMENTS);
+		}
+
+		/**
+		 * @param arguments
+		 * @return
+		 * @throws Throwable
+		 */
+		public Object answer(Object[] arguments) throws Throwable {
+			return answer.answer(arguments);
+		}
+
+		/**
+		 * @return true if the answer needs the call arguments
+		 */
+		public boolean isArgumentAware() {
+			return argumentAware;
+		}
+
+		/**
+		 * @return true if the answer has been registered by a test
+		 */
+		public boolean isStubbed() {
+			return stubbed;
+		}
+	}
+
+	/**
+	 * Called by the class initializer of the generated facade
+	 * 
+	 * @param methods
+	 *            method keys separated by {@value #METHOD_SEPARATOR}
+	 */
+	public StubTable(String methods) {
+		this(methods.isEmpty() ? new String[0] : methods.split(METHOD_SEPARATOR));
+	}
+
+	public StubTable(String[] methods) {
+		this.methods = methods;
+		this.defaults = new Entry[methods.length];
+
+		for (int i = 0; i < methods.length; i++) {
+			final Object value = defaultValue(methods[i]);
+
+			defaults[i] = new Entry(new StubAnswer() {
+				public Object answer(Object[] arguments) {
+					return value;
+				}
+			}, false, false);
+		}
+
+		this.entries = defaults.clone();
+	}
+
+	/**
+	 * Returns the current entry of a method. Called by the generated facade
+	 * once per call.
+	 * 
+	 * @param index
+	 * @return never null
+	 */
+	public Entry entry(int index) {
+		return entries[index];
+	}
+
+	/**
+	 * Returns the answer of a method without parameters or whose answer does
+	 * not need any arguments
+	 * 
+	 * @param index
+	 * @return
+	 * @throws Throwable
+	 */
+	public Object answer(int index) throws Throwable {
+		return entries[index].answer();
+	}
+
+	/**
+	 * Returns the answer of a method
+	 * 
+	 * @param index
+	 * @param arguments
+	 * @return
+	 * @throws Throwable
+	 */
+	public Object answer(int index, Object[] arguments) throws Throwable {
+		return entries[index].answer(arguments);
+	}
+
+	/**
+	 * @param index
+	 * @return true if an answer for the method has been registered
+	 */
+	public boolean isStubbed(int index) {
+		return entries[index].isStubbed();
+	}
+
+	/**
+	 * Starts stubbing the method with the given name. Use
+	 * {@link #when(String, Class...)} for overloaded methods.
+	 * 
+	 * @param methodName
+	 * @return
+	 */
+	public OngoingStub when(String methodName) {
+		List<Integer> found = new ArrayList<Integer>();
+
+		for (int i = 0; i < methods.length; i++) {
+			if (methods[i].startsWith(methodName + "(")) {
+				found.add(i);
+			}
+		}
+
+		if (found.size() != 1) {
+			throw new IllegalArgumentException((found.isEmpty() ? "No" : "More than one") + " method with name "
+					+ methodName + " found; available are " + getMethods());
+		}
+
+		return new OngoingStub(found.get(0));
+	}
+
+	/**
+	 * Starts stubbing the method with the given name and parameter types
+	 * 
+	 * @param methodName
+	 * @param parameterTypes
+	 * @return
+	 */
+	public OngoingStub when(String methodName, Class<?>... parameterTypes) {
+		StringBuilder sb = new StringBuilder(methodName).append("(");
+
+		for (Class<?> parameterType : parameterTypes) {
+			sb.append(descriptor(parameterType));
+		}
+
+		sb.append(")");
+		String prefix = sb.toString();
+
+		for (int i = 0; i < methods.length; i++) {
+			if (methods[i].startsWith(prefix)) {
+				return new OngoingStub(i);
+			}
+		}
+
+		throw new IllegalArgumentException("No method " + prefix + " found; available are " + getMethods());
+	}
+
+	/**
+	 * Removes every registered answer
+	 */
+	public synchronized void reset() {
+		entries = defaults.clone();
+	}
+
+	/**
+	 * @return the keys of all facade methods in table order
+	 */
+	public List<String> getMethods() {
+		List<String> r = new ArrayList<String>();
+
+		for (String method : methods) {
+			r.add(method);
+		}
+
+		return r;
+	}
+
+	protected synchronized void register(int index, StubAnswer answer, boolean needsArguments) {
+		Entry[] newEntries = entries.clone();
+		newEntries[index] = new Entry(answer, needsArguments, true);
+
+		// the entry is complete before the new array is published
+		entries = newEntries;
+	}
+
+	/**
+	 * Registers the answer of a single method
+	 */
+	public class OngoingStub {
+		private final int index;
+
+		OngoingStub(int index) {
+			this.index = index;
+		}
+
+		/**
+		 * The method returns always the given value
+		 * 
+		 * @param value
+		 */
+		public void thenReturn(final Object value) {
+			register(index, new StubAnswer() {
+				public Object answer(Object[] arguments) {
+					return value;
+				}
+			}, false);
+		}
+
+		/**
+		 * The method returns the given values one after another; the last
+		 * value is returned for all further calls
+		 * 
+		 * @param first
+		 * @param next
+		 */
+		public void thenReturn(final Object first, final Object... next) {
+			if (next.length == 0) {
+				thenReturn(first);
+				return;
+			}
+
+			final AtomicInteger calls = new AtomicInteger();
+
+			register(index, new StubAnswer() {
+				public Object answer(Object[] arguments) {
+					int call = calls.getAndIncrement();
+
+					if (call == 0) {
+						return first;
+					}
+
+					if (call > next.length) {
+						// avoid an overflow of the counter
+						calls.set(next.length + 1);
+						return next[next.length - 1];
+					}
+
+					return next[call - 1];
+				}
+			}, false);
+		}
+
+		/**
+		 * The method throws the given exception
+		 * 
+		 * @param throwable
+		 */
+		public void thenThrow(final Throwable throwable) {
+			register(index, new StubAnswer() {
+				public Object answer(Object[] arguments) throws Throwable {
+					throw throwable;
+				}
+			}, false);
+		}
+
+		/**
+		 * The method returns the result of the given answer which gets the
+		 * call arguments
+		 * 
+		 * @param answer
+		 */
+		public void thenAnswer(StubAnswer answer) {
+			register(index, answer, true);
+		}
+	}
+
+	/**
+	 * Returns the boxed default value of the return type inside the given
+	 * method key
+	 * 
+	 * @param method
+	 * @return
+	 */
+	static Object defaultValue(String method) {
+		String returnType = method.substring(method.lastIndexOf(')') + 1);
+
+		switch (returnType.charAt(0)) {
+		case 'Z':
+			return Boolean.FALSE;
+		case 'B':
+			return Byte.valueOf((byte) 0);
+		case 'C':
+			return Character.valueOf((char) 0);
+		case 'S':
+			return Short.valueOf((short) 0);
+		case 'I':
+			return Integer.valueOf(0);
+		case 'J':
+			return Long.valueOf(0);
+		case 'F':
+			return Float.valueOf(0);
+		case 'D':
+			return Double.valueOf(0);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the JVM descriptor of the given type
+	 * 
+	 * @param type
+	 * @return
+	 */
+	static String descriptor(Class<?> type) {
+		if (type.isArray()) {
+			return type.getName().replace('.', '/');
+		}
+
+		if (type == boolean.class) {
+			return "Z";
+		} else if (type == byte.class) {
+			return "B";
+		} else if (type == char.class) {
+			return "C";
+		} else if (type == short.class) {
+			return "S";
+		} else if (type == int.class) {
+			return "I";
+		} else if (type == long.class) {
+			return "J";
+		} else if (type == float.class) {
+			return "F";
+		} else if (type == double.class) {
+			return "D";
+		} else if (type == void.class) {
+			return "V";
+		}
+
+		return "L" + type.getName().replace('.', '/') + ";";
+	}
+}
@@ -0,0 +1,123 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.schakko.warp.business.entity.User;
+
+/**
+ * Uses a UserService facade with {@link StubTable} which is loaded by a
+ * {@link FacadeClassLoader}
+ * 
+ * @author ckl
+ * 
+ */
+public class StubTableTest {
+	private final static String SOURCE_CLAZZ = "de.schakko.warp.business.boundary.UserService";
+
+	private Object createFacade() throws Exception {
+		byte[] bytecode = EjbMocker.EjbMockerBuilder.create(SOURCE_CLAZZ).suppressExceptions(true)
+				.useStubTable(true).useCache(false).stream();
+		return FacadeClassLoader.newFacade(SOURCE_CLAZZ, bytecode);
+	}
+
+	@Test
+	public void unstubbed_methods_return_default_values() throws Exception {
+		Object facade = createFacade();
+		Method findUsers = facade.getClass().getMethod("findUsers");
+
+		assertNull(findUsers.invoke(facade));
+	}
+
+	@Test
+	public void stubbed_methods_return_constant_and_sequence_answers() throws Exception {
+		Object facade = createFacade();
+		Method findUsers = facade.getClass().getMethod("findUsers");
+
+		List<User> first = new ArrayList<User>();
+		List<User> second = new ArrayList<User>();
+		first.add(new User(1, "first"));
+
+		StubTable stubs = EjbMockerUtil.getStubTable(facade);
+		stubs.when("findUsers").thenReturn(first);
+		assertSame(first, findUsers.invoke(facade));
+		assertSame(first, findUsers.invoke(facade));
+
+		stubs.when("findUsers").thenReturn(first, second);
+		assertSame(first, findUsers.invoke(facade));
+		assertSame(second, findUsers.invoke(facade));
+		assertSame(second, findUsers.invoke(facade));
+
+		stubs.reset();
+		assertNull(findUsers.invoke(facade));
+	}
+
+	@Test
+	public void methods_with_primitive_arguments_and_iterators_are_delegated() throws Exception {
+		Object facade = createFacade();
+		Method findUserPage = facade.getClass().getMethod("findUserPage", int.class, int.class);
+		Method iterateUsers = facade.getClass().getMethod("iterateUsers");
+
+		List<User> page = new ArrayList<User>();
+		page.add(new User(11, "eleventh"));
+
+		StubTable stubs = EjbMockerUtil.getStubTable(facade);
+		stubs.when("findUserPage", int.class, int.class).thenReturn(page);
+		stubs.when("iterateUsers").thenReturn(page.iterator());
+
+		assertSame(page, findUserPage.invoke(facade, 10, 1));
+		assertEquals(11, ((User) ((Iterator<?>) iterateUsers.invoke(facade)).next()).getId());
+	}
+
+	@Test
+	public void argument_aware_answers_of_methods_without_parameters_get_empty_arguments() throws Exception {
+		Object facade = createFacade();
+		Method findUsers = facade.getClass().getMethod("findUsers");
+		final List<User> users = new ArrayList<User>();
+
+		EjbMockerUtil.getStubTable(facade).when("findUsers").thenAnswer(new StubAnswer() {
+			public Object answer(Object[] arguments) {
+				assertEquals(0, arguments.length);
+				return users;
+			}
+		});
+
+		assertSame(users, findUsers.invoke(facade));
+	}
+
+	@Test
+	public void entries_publish_answer_and_argument_flag_together() throws Throwable {
+		StubTable stubs = new StubTable("findUsers()Ljava/util/List;,findById(J)Lde/schakko/warp/business/entity/User;");
+		StubTable.Entry unstubbed = stubs.entry(1);
+		assertFalse(unstubbed.isStubbed());
+
+		stubs.when("findById").thenAnswer(new StubAnswer() {
+			public Object answer(Object[] arguments) {
+				return arguments[0];
+			}
+		});
+
+		StubTable.Entry entry = stubs.entry(1);
+		assertTrue(entry.isStubbed());
+		assertTrue(entry.isArgumentAware());
+		assertEquals(42L, entry.answer(new Object[] { 42L }));
+		// entries which have been read before stay consistent
+		assertFalse(unstubbed.isArgumentAware());
+		assertNull(unstubbed.answer());
+
+		stubs.reset();
+		assertFalse(stubs.entry(1).isStubbed());
+		assertFalse(stubs.entry(0).isArgumentAware());
+	}
+
+	@Test(expected = Exception.class)
+	public void facade_with_stub_table_has_no_embedded_mock() throws Exception {
+		EjbMockerUtil.getEmbeddedMock(createFacade(), Object.class);
+	}
+}
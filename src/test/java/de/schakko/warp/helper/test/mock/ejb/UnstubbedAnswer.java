@@ -0,0 +1,52 @@
+package de.schakko.warp.helper.test.mock.ejb;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Default answer of embedded mocks inside spy facades. Mockito only calls the
+ * default answer if an invocation has not been stubbed; the answer marks this
+ * for the current thread, so the facade can call the original method instead.
+ * 
+ * <pre>
+ * UnstubbedAnswer.begin();
+ * Object r = mock.findUsers();
+ * 
+ * if (UnstubbedAnswer.end()) {
+ * 	r = __real__findUsers();
+ * }
+ * </pre>
+ * 
+ * @author ckl
+ * 
+ */
+public class UnstubbedAnswer implements Answer<Object> {
+	private final static ThreadLocal<Boolean> UNSTUBBED = new ThreadLocal<Boolean>();
+
+	@Override
+	public Object answer(InvocationOnMock invocation) throws Throwable {
+		UNSTUBBED.set(Boolean.TRUE);
+
+		return Mockito.RETURNS_DEFAULTS.answer(invocation);
+	}
+
+	/**
+	 * Called by the facade before it delegates to the embedded mock
+	 */
+	public static void begin() {
+		UNSTUBBED.remove();
+	}
+
+	/**
+	 * Called by the facade after it has delegated to the embedded mock
+	 * 
+	 * @return true if the invocation has not been stubbed
+	 */
+	public static boolean end() {
+		boolean r = UNSTUBBED.get() != null;
+		UNSTUBBED.remove();
+
+		return r;
+	}
+}
@@ -0,0 +1,86 @@
+package de.schakko.warp.presentation.controller;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.schakko.warp.business.entity.User;
+import de.schakko.warp.helper.test.injvm.InJvmContainer;
+import de.schakko.warp.helper.test.injvm.InJvmSession;
+import de.schakko.warp.helper.test.mock.ejb.StubAnswer;
+
+/**
+ * Runs {@link UserController} against a mocked UserService without any
+ * application server. The container is shared by all tests of this class.
+ * 
+ * @author ckl
+ * 
+ */
+public class UserControllerInJvmTest {
+	private final static String USER_SERVICE = "de.schakko.warp.business.boundary.UserService";
+
+	private static InJvmContainer container;
+
+	@BeforeClass
+	public static void startContainer() throws Exception {
+		container = InJvmContainer.create();
+	}
+
+	@Before
+	public void resetMocks() throws Exception {
+		container.reset();
+
+		container.getStubTable(USER_SERVICE).when("findFirstUser").thenReturn(new User(2, "A mocked user instance"));
+	}
+
+	@Test
+	public void firstUser_is_rendered_from_mocked_service() throws Exception {
+		InJvmSession session = container.openSession();
+
+		assertEquals("A mocked user instance", session.evaluate("#{userController.firstUser.username}"));
+	}
+
+	@Test
+	public void controller_is_session_scoped() throws Exception {
+		InJvmSession session = container.openSession();
+		Object controller = session.getBean("userController");
+
+		assertSame(controller, session.getBean("userController"));
+		assertNotSame(controller, container.openSession().getBean("userController"));
+		// the controller has been linked against the facade
+		assertSame(container.getEjb(USER_SERVICE), readField(controller, "userService"));
+	}
+
+	@Test
+	public void firstUser_is_loaded_once_per_request() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		container.getStubTable(USER_SERVICE).when("findFirstUser").thenAnswer(new StubAnswer() {
+			@Override
+			public Object answer(Object[] arguments) {
+				calls.incrementAndGet();
+				return new User(2, "A mocked user instance");
+			}
+		});
+
+		InJvmSession session = container.openSession();
+		// both expressions evaluate the getter inside one request
+		session.render("#{userController.firstUser.username}", "#{userController.firstUser}");
+		assertEquals(1, calls.get());
+
+		// the memo does not survive the request
+		session.render("#{userController.firstUser.username}");
+		assertEquals(2, calls.get());
+	}
+
+	private Object readField(Object bean, String name) throws Exception {
+		Field field = bean.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+
+		return field.get(bean);
+	}
+}
@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import javax.ejb.EJB;
+import javax.faces.context.FacesContext;
 
 import org.jboss.arquillian.container.test.api.Deployment;
 import org.jboss.arquillian.container.test.api.RunAsClient;
@@ -31,9 +32,11 @@ import org.openqa.selenium.WebDriver;
 
 import de.schakko.warp.business.boundary.UserService;
 import de.schakko.warp.business.entity.User;
+import de.schakko.warp.helper.test.integration.StubControl;
 import de.schakko.warp.helper.test.integration.WarpUtil;
 import de.schakko.warp.helper.test.integration.WebArchiveUtil;
 import de.schakko.warp.helper.test.mock.ejb.EjbMockerUtil;
+import de.schakko.warp.presentation.controller.RequestMemo;
 import de.schakko.warp.presentation.controller.UserController;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -59,9 +62,11 @@ public class UserControllerIT {
 	 */
 	@Deployment(testable = true)
 	public static WebArchive createDeployment() throws Exception {
-		WebArchive war = WarpUtil.createCustomerBaselineWAR();
+		// the baseline is built once per JVM and shared by all tests
+		WebArchive war = WarpUtil.createCustomerBaselineWARFromTemplate();
 		// our controller we want to test
 		war.addClass(UserController.class);
+		war.addClass(RequestMemo.class);
 		// create mocked EJB facades. We don't want to interact with the real
 		// Oracle database which causes a lot of trouble setting up test data
 		WebArchiveUtil.addControllableEjbFacade(war, "de.schakko.warp.business.boundary.UserService");
@@ -138,10 +143,9 @@ public class UserControllerIT {
 				// does injection work?
 				assertNotNull(userService);
 
-				// we will just add a new row inside the overview with name
-				// TEST-WARP. This should be seen in the screenshot
-				List<User> result = new ArrayList<User>();
-				result.add(new User(2, "A mocked user instance"));
+				// the controller only asks for the first user. This should be
+				// seen in the screenshot
+				User result = new User(2, "A mocked user instance");
 
 				// now the magic. We get the embedded mock inside the
 				// UserService. Technically, the UserService
@@ -149,7 +153,7 @@ public class UserControllerIT {
 				UserService embeddedServiceMock = EjbMockerUtil.getEmbeddedMock(userService, UserService.class);
 
 				// ... and set up the mocking instance
-				when(embeddedServiceMock.findUsers()).thenReturn(result);
+				when(embeddedServiceMock.findFirstUser()).thenReturn(result);
 			}
 
 			@AfterServlet
@@ -165,13 +169,69 @@ public class UserControllerIT {
 			@AfterPhase(Phase.RENDER_RESPONSE)
 			public void afterRender() throws Exception {
 				// ensure any mocked value has been set
-				assertNotNull(userService.findUsers());
-				assertEquals(1, userService.findUsers().size());
-				assertEquals(2, userService.findUsers().get(0).getId());
+				assertNotNull(userService.findFirstUser());
+				assertEquals(2, userService.findFirstUser().getId());
 			}
 		});
 	}
 
+	/**
+	 * #{userController.firstUser} is evaluated again after index.xhtml has
+	 * been rendered. The {@link RequestMemo} ensures that the UserService is
+	 * called only once per request.
+	 */
+	@Test
+	@RunAsClient
+	public void firstUser_is_loaded_once_per_request() {
+		Warp.initiate(new Activity() {
+			public void perform() {
+				driver.navigate().to(path.toString() + "/index.xhtml");
+				assertEquals("A memoized user", driver.findElement(By.className("output")).getText());
+			}
+		}).inspect(new Inspection() {
+			private static final long serialVersionUID = 4511622104364927671L;
+
+			@EJB(mappedName = "java:module/UserService")
+			UserService userService;
+
+			@BeforeServlet
+			public void stubFirstUser() throws Exception {
+				UserService embeddedServiceMock = EjbMockerUtil.getEmbeddedMock(userService, UserService.class);
+				// the facade is shared with the other tests
+				reset(embeddedServiceMock);
+				when(embeddedServiceMock.findFirstUser()).thenReturn(new User(4, "A memoized user"));
+			}
+
+			@AfterPhase(Phase.RENDER_RESPONSE)
+			public void verifyCallCount() throws Exception {
+				FacesContext context = FacesContext.getCurrentInstance();
+				User firstUser = context.getApplication().evaluateExpressionGet(context,
+						"#{userController.firstUser}", User.class);
+				assertEquals(4, firstUser.getId());
+
+				UserService embeddedServiceMock = EjbMockerUtil.getEmbeddedMock(userService, UserService.class);
+				verify(embeddedServiceMock, times(1)).findFirstUser();
+			}
+		});
+	}
+
+	/**
+	 * The facade is stubbed by a single request to the stub control servlet
+	 * of the baseline WAR; the page itself is requested without any Warp
+	 * inspection.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	@RunAsClient
+	public void facade_is_stubbed_without_inspection() throws IOException {
+		StubControl.at(path).stub("de.schakko.warp.business.boundary.UserService",
+				"{ \"findFirstUser\": { \"id\": 5, \"username\": \"A user stubbed by stub control\" } }").send();
+
+		driver.navigate().to(path.toString() + "/index.xhtml");
+		assertEquals("A user stubbed by stub control", driver.findElement(By.className("output")).getText());
+	}
+
 	/**
 	 * EJB must be used with mappedName inside the Unit test; @Inject annotation
 	 * doesn't work as @EJB annotation without mappedNamed does not work